@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openshift.ping.common.RetryPolicy;
+import org.openshift.ping.kube.Client;
+import org.openshift.ping.kube.Pod;
+
+/**
+ * {@link Client#getPods(String, String)} parsing a pod list, without any I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int pods;
+
+    private Client client;
+
+    @Setup
+    public void setup() throws Exception {
+        final byte[] json = PodListFixture.podList(pods).getBytes("UTF-8");
+        client = new Client(null, null, 0, 0, RetryPolicy.fixed(0, 0), null, 0, null) {
+            @Override
+            protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+                return new ByteArrayInputStream(json);
+            }
+        };
+    }
+
+    @Benchmark
+    public List<Pod> getPods() throws Exception {
+        return client.getPods("dward", "application=eap-app");
+    }
+}
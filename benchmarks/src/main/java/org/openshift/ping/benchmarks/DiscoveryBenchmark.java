@@ -0,0 +1,131 @@
+/**
+ *  Copyright 2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.benchmarks;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.UUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openshift.ping.common.OpenshiftPing;
+
+/**
+ * One {@link OpenshiftPing#sendMcastDiscoveryRequest(Message)} round fanning out to a number of hosts, against a
+ * stub transport that only counts what it is sent. The stub is written against the JGroups 3 API of the default
+ * build profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int hosts;
+
+    private FanOutPing ping;
+    private StubTransport transport;
+
+    @Setup
+    public void setup() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(hosts);
+        for (int i = 0; i < hosts; i++) {
+            addresses.add(new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}), 8888));
+        }
+        transport = new StubTransport(new IpAddress(InetAddress.getByAddress(new byte[]{10, 1, 0, 1}), 7600));
+        ping = new FanOutPing(addresses);
+        // not init()ed or started, which would need a full stack; the hosts are then read in the calling thread
+        ping.setDownProtocol(transport);
+        // the first round reads the hosts, later rounds go to them straight away
+        ping.discover(new Message(null));
+    }
+
+    @Benchmark
+    public int sendMcastDiscoveryRequest() {
+        ping.discover(new Message(null).setBuffer(new byte[64]));
+        return transport.sent;
+    }
+
+    private static final class FanOutPing extends OpenshiftPing {
+        private final List<InetSocketAddress> hosts;
+
+        private FanOutPing(List<InetSocketAddress> hosts) {
+            super("BENCHMARK_PING_");
+            this.hosts = hosts;
+            this.local_addr = UUID.randomUUID();
+        }
+
+        private void discover(Message msg) {
+            sendMcastDiscoveryRequest(msg);
+        }
+
+        @Override
+        protected boolean isClusteringEnabled() {
+            return true;
+        }
+
+        @Override
+        protected int getServerPort() {
+            return 8888;
+        }
+
+        @Override
+        protected List<InetSocketAddress> doReadAll(String clusterName) {
+            return hosts;
+        }
+    }
+
+    private static final class StubTransport extends Protocol {
+        private final IpAddress physicalAddress;
+        private int sent;
+
+        private StubTransport(IpAddress physicalAddress) {
+            this.physicalAddress = physicalAddress;
+        }
+
+        @Override
+        public Object down(Event evt) {
+            switch (evt.getType()) {
+                case Event.GET_PHYSICAL_ADDRESS:
+                    return physicalAddress;
+                case Event.MSG:
+                    sent++;
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ *  Copyright 2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.benchmarks;
+
+/**
+ * Synthetic pod lists in the shape of kube/src/test/resources/pods.json, padded with the kind of fields a real
+ * master returns (labels, annotations, env, volumes) that discovery has to skip over.
+ */
+final class PodListFixture {
+
+    private PodListFixture() {
+    }
+
+    static String podList(int pods) {
+        StringBuilder sb = new StringBuilder(pods * 900 + 128);
+        sb.append("{\"kind\":\"PodList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"4711\"},\"items\":[");
+        for (int i = 0; i < pods; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            String podIP = String.format("10.%s.%s.%s", (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff);
+            sb.append("{\"metadata\":{\"name\":\"eap-app-1-").append(i).append("\",\"namespace\":\"dward\",")
+                .append("\"labels\":{\"application\":\"eap-app\",\"deploymentconfig\":\"eap-app-1\"},")
+                .append("\"annotations\":{\"openshift.io/scc\":\"restricted\",\"kubernetes.io/created-by\":\"{\\\"kind\\\":\\\"SerializedReference\\\"}\"}},")
+                .append("\"spec\":{\"containers\":[{\"name\":\"eap-app\",\"image\":\"jboss-eap-7/eap70-openshift\",")
+                .append("\"env\":[{\"name\":\"OPENSHIFT_KUBE_PING_NAMESPACE\",\"value\":\"dward\"},{\"name\":\"OPENSHIFT_KUBE_PING_LABELS\",\"value\":\"application=eap-app\"}],")
+                .append("\"ports\":[{\"name\":\"http\",\"containerPort\":8080,\"protocol\":\"TCP\"},{\"name\":\"ping\",\"containerPort\":8888,\"protocol\":\"TCP\"}],")
+                .append("\"volumeMounts\":[{\"name\":\"default-token\",\"readOnly\":true,\"mountPath\":\"/var/run/secrets/kubernetes.io/serviceaccount\"}]}],")
+                .append("\"volumes\":[{\"name\":\"default-token\",\"secret\":{\"secretName\":\"default-token\"}}],")
+                .append("\"serviceAccount\":\"default\",\"host\":\"localhost\"},")
+                .append("\"status\":{\"phase\":\"Running\",\"conditions\":[{\"type\":\"Ready\",\"status\":\"True\"}],")
+                .append("\"hostIP\":\"127.0.0.1\",\"podIP\":\"").append(podIP).append("\"}}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.benchmarks;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.JChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openshift.ping.common.server.AbstractServer;
+
+/**
+ * {@link AbstractServer#getChannel(String)}, as called for every incoming ping request, from several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ServerBenchmark {
+
+    @Param({"1", "16"})
+    public int channels;
+
+    private RegistryServer server;
+    private String[] clusterNames;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new RegistryServer();
+        clusterNames = new String[channels];
+        Field clusterName = JChannel.class.getDeclaredField("cluster_name");
+        clusterName.setAccessible(true);
+        for (int i = 0; i < channels; i++) {
+            clusterNames[i] = "cluster-" + i;
+            JChannel channel = new JChannel(false);
+            clusterName.set(channel, clusterNames[i]);
+            server.start(channel);
+        }
+    }
+
+    @Benchmark
+    public JChannel getChannel() {
+        return server.getChannel(clusterNames[(int) (Thread.currentThread().getId() % channels)]);
+    }
+
+    private static final class RegistryServer extends AbstractServer {
+        private RegistryServer() {
+            super(0);
+        }
+
+        public boolean start(JChannel channel) {
+            addChannel(channel);
+            return true;
+        }
+
+        public boolean stop(JChannel channel) {
+            removeChannel(channel);
+            return true;
+        }
+    }
+}
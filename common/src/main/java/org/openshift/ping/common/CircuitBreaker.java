@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops host lookups from hammering (and waiting on) a master or DNS server that keeps failing.
+ * <p>
+ * After failureThreshold consecutive failed lookups the breaker opens, and {@link #allowRequest()} turns lookups
+ * down, so callers carry on with the hosts they already know. Once openTimeout has passed, a single probe lookup
+ * is let through (half-open): its success closes the breaker, its failure opens it for another openTimeout.
+ * A failureThreshold of 0 or less disables the breaker.
+ */
+public class CircuitBreaker {
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openTimeout;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long opens;
+
+    public CircuitBreaker(String name, int failureThreshold, long openTimeout) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openTimeout = Math.max(0, openTimeout);
+    }
+
+    /**
+     * Whether a lookup may go ahead now. While half-open only the one probe is allowed.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (hasOpenTimedOut()) {
+                    state = State.HALF_OPEN;
+                    if (log.isLoggable(Level.FINE)) {
+                        log.log(Level.FINE, String.format("%s half-open; probing", this));
+                    }
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether lookups are being turned down at the moment, i.e. the breaker is open and not yet due for a probe.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && !hasOpenTimedOut();
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED && log.isLoggable(Level.INFO)) {
+            log.info(String.format("%s closed; lookups succeed again", this));
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                opens++;
+                if (log.isLoggable(Level.WARNING)) {
+                    log.warning(String.format("%s opened after %s consecutive failed lookups; using last known hosts for %sms",
+                            this, consecutiveFailures, openTimeout));
+                }
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Closes the breaker, so the next lookup goes ahead whatever happened before.
+     */
+    public synchronized void reset() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return how many times the breaker went from closed to open
+     */
+    public synchronized long getOpens() {
+        return opens;
+    }
+
+    private boolean hasOpenTimedOut() {
+        return System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openTimeout);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]", getClass().getSimpleName(), name);
+    }
+}
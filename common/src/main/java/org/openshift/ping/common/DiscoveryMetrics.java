@@ -0,0 +1,202 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime numbers for a discovery protocol: how long host lookups take, how often they had to be retried, how much
+ * was read from the master and how many hosts each discovery round went to. Updated from any thread.
+ */
+public class DiscoveryMetrics {
+
+    private static final int LATENCY_SAMPLES = 256;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyIndex;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong failedLookups = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong podsParsed = new AtomicLong();
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong hostsPinged = new AtomicLong();
+    private volatile int podsAccepted;
+    private volatile int lastHostsPinged;
+    private volatile long lastSuccess;
+
+    /**
+     * Records a lookup that actually went to the master or DNS. Hosts served from a watch or a cache are not
+     * lookups.
+     *
+     * @param nanos how long it took
+     * @param success whether the lookup got an answer, which may have had no hosts in it
+     */
+    public void recordLookup(long nanos, boolean success) {
+        lookups.incrementAndGet();
+        if (success) {
+            lastSuccess = System.currentTimeMillis();
+        } else {
+            failedLookups.incrementAndGet();
+        }
+        synchronized (latencies) {
+            latencies[latencyIndex] = nanos;
+            latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+            if (latencyCount < LATENCY_SAMPLES) {
+                latencyCount++;
+            }
+        }
+    }
+
+    public void recordRetries(int count) {
+        if (count > 0) {
+            retries.addAndGet(count);
+        }
+    }
+
+    public void recordPodsParsed(int count) {
+        podsParsed.addAndGet(count);
+    }
+
+    /**
+     * @param count the pods the last read of the hosts accepted, whether they came from the master or not
+     */
+    public void recordPodsAccepted(int count) {
+        podsAccepted = count;
+    }
+
+    public void recordHostsPinged(int count) {
+        rounds.incrementAndGet();
+        hostsPinged.addAndGet(count);
+        lastHostsPinged = count;
+    }
+
+    /**
+     * @return the stream, counting the bytes read from it
+     */
+    public InputStream countBytes(InputStream stream) {
+        return new CountingInputStream(stream);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the lookup latency in millis at the percentile, over the most recent lookups; 0 if there were none
+     */
+    public double getLookupLatency(double percentile) {
+        long[] samples;
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, latencyCount);
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        index = Math.max(0, Math.min(samples.length - 1, index));
+        return samples[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getFailedLookups() {
+        return failedLookups.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getPodsParsed() {
+        return podsParsed.get();
+    }
+
+    public int getPodsAccepted() {
+        return podsAccepted;
+    }
+
+    public int getLastHostsPinged() {
+        return lastHostsPinged;
+    }
+
+    /**
+     * @return the average number of hosts a discovery round went to
+     */
+    public double getAverageHostsPinged() {
+        long count = rounds.get();
+        return count > 0 ? hostsPinged.get() / (double) count : 0;
+    }
+
+    /**
+     * @return millis since the last successful lookup, or -1 if there has not been one
+     */
+    public long getTimeSinceLastSuccess() {
+        long time = lastSuccess;
+        return time > 0 ? System.currentTimeMillis() - time : -1;
+    }
+
+    public String toString() {
+        return String.format("%s[lookups=%s, failedLookups=%s, p50=%.1fms, p99=%.1fms, retries=%s, bytesRead=%s, podsParsed=%s, podsAccepted=%s, lastHostsPinged=%s]",
+                getClass().getSimpleName(), getLookups(), getFailedLookups(), getLookupLatency(50), getLookupLatency(99), getRetries(),
+                getBytesRead(), getPodsParsed(), getPodsAccepted(), getLastHostsPinged());
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                bytesRead.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                bytesRead.addAndGet(skipped);
+            }
+            return skipped;
+        }
+    }
+}
@@ -16,25 +16,59 @@
 
 package org.openshift.ping.common;
 
+import static org.openshift.ping.common.Utils.getSystemEnv;
 import static org.openshift.ping.common.Utils.getSystemEnvInt;
 import static org.openshift.ping.common.Utils.trimToNull;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.InputStream;
-import java.lang.reflect.Method;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jgroups.Event;
 import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.protocols.PING;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.stack.Protocol;
-import org.openshift.ping.common.compatibility.CompatibilityException;
-import org.openshift.ping.common.compatibility.CompatibilityUtils;
+import org.jgroups.util.ByteBufferInputStream;
+import org.openshift.ping.common.compatibility.CompatibilityHandles;
+import org.openshift.ping.common.server.AbstractServer;
+import org.openshift.ping.common.server.PingResponses;
+import org.openshift.ping.common.server.Server;
+import org.openshift.ping.common.server.ServerExecutor;
+import org.openshift.ping.common.server.ServerExecutor.RejectionPolicy;
 import org.openshift.ping.common.server.ServerFactory;
+import org.openshift.ping.common.server.Servers;
 
 public abstract class OpenshiftPing extends PING {
 
@@ -58,20 +92,80 @@ public abstract class OpenshiftPing extends PING {
     private long operationSleep = 1000;
     private long _operationSleep;
 
-    private static Method sendDownMethod; //handled via reflection due to JGroups 3/4 incompatibility
+    @Property
+    private long operationMaxSleep = 10000;
+    private long _operationMaxSleep;
+
+    @Property
+    private long operationDeadline = 0;
+    private long _operationDeadline;
+
+    private RetryPolicy _retryPolicy;
+
+    @Property
+    private int circuitBreakerThreshold = 3;
+    private int _circuitBreakerThreshold;
+
+    @Property
+    private long circuitBreakerTimeout = 30000;
+    private long _circuitBreakerTimeout;
+
+    private volatile CircuitBreaker _circuitBreaker;
+
+    @Property
+    private boolean serverEnabled = false;
+    private boolean _serverEnabled;
+    private volatile ServerFactory _serverFactory;
+    private volatile Server _server;
+    private ResponseCapture _responseCapture;
+
+    // the ping server's request pool; 0 or unset for the server's defaults
+    @Property
+    private int serverMaxThreads = 0;
+    private int _serverMaxThreads;
+
+    @Property
+    private int serverQueueSize = 0;
+    private int _serverQueueSize;
+
+    @Property
+    private String serverRejectionPolicy;
+    private RejectionPolicy _serverRejectionPolicy;
+
+    @Property
+    private boolean serverVirtualThreads = false;
+    private boolean _serverVirtualThreads;
+
+    @Property
+    private boolean httpDiscovery = false;
+    private boolean _httpDiscovery;
+    private volatile ExecutorService _httpDiscoveryExecutor;
+
+    // the discovery responses sent while a ping request from the ping server is handled on this thread
+    private static final ThreadLocal<List<Message>> CAPTURED_RESPONSES = new ThreadLocal<List<Message>>();
+    private static final int HTTP_DISCOVERY_THREADS = 10;
+
+    @Property
+    private boolean virtualThreads = false;
+    private boolean _virtualThreads;
+
+    @Property
+    private long discoveryTimeout = 5000;
+    private long _discoveryTimeout;
+
+    @Property
+    private String peersFile;
+    private volatile PeersFile _peersFile;
+
+    private final AtomicReference<HostsRefresh> _refresh = new AtomicReference<HostsRefresh>();
+    private volatile List<InetSocketAddress> _lastKnownHosts = Collections.emptyList();
+    private volatile ExecutorService _refreshExecutor;
+
+    private final DiscoveryMetrics _metrics = new DiscoveryMetrics();
 
     public OpenshiftPing(String systemEnvPrefix) {
         super();
         _systemEnvPrefix = trimToNull(systemEnvPrefix);
-        try {
-            if(CompatibilityUtils.isJGroups4()) {
-                sendDownMethod = Protocol.class.getMethod("down", Message.class);
-            } else {
-                sendDownMethod = Protocol.class.getMethod("down", Event.class);
-            }
-        } catch (Exception e) {
-            throw new CompatibilityException("Could not find suitable 'up' method.", e);
-        }
     }
 
     protected final String getSystemEnvName(String systemEnvSuffix) {
@@ -102,11 +196,157 @@ public abstract class OpenshiftPing extends PING {
         return _operationSleep;
     }
 
+    protected final RetryPolicy getRetryPolicy() {
+        return _retryPolicy;
+    }
+
+    protected final CircuitBreaker getCircuitBreaker() {
+        return _circuitBreaker;
+    }
+
+    protected final long getDiscoveryTimeout() {
+        return _discoveryTimeout;
+    }
+
+    protected final DiscoveryMetrics getMetrics() {
+        return _metrics;
+    }
+
+    @ManagedAttribute(description = "Median latency of host lookups (master or DNS) in ms, over the recent lookups")
+    public double getLookupLatencyP50() {
+        return _metrics.getLookupLatency(50);
+    }
+
+    @ManagedAttribute(description = "99th percentile latency of host lookups (master or DNS) in ms, over the recent lookups")
+    public double getLookupLatencyP99() {
+        return _metrics.getLookupLatency(99);
+    }
+
+    @ManagedAttribute(description = "Number of host lookups that went to the master or DNS")
+    public long getLookups() {
+        return _metrics.getLookups();
+    }
+
+    @ManagedAttribute(description = "Number of host lookups that failed or timed out")
+    public long getFailedLookups() {
+        return _metrics.getFailedLookups();
+    }
+
+    @ManagedAttribute(description = "Number of retries consumed by host lookups")
+    public long getLookupRetries() {
+        return _metrics.getRetries();
+    }
+
+    @ManagedAttribute(description = "Number of bytes read from the master")
+    public long getBytesRead() {
+        return _metrics.getBytesRead();
+    }
+
+    @ManagedAttribute(description = "Number of running pods parsed from the master's responses")
+    public long getPodsParsed() {
+        return _metrics.getPodsParsed();
+    }
+
+    @ManagedAttribute(description = "Number of pods accepted as discovery hosts by the last read of the hosts")
+    public int getPodsAccepted() {
+        return _metrics.getPodsAccepted();
+    }
+
+    @ManagedAttribute(description = "Number of hosts the last discovery round was sent to")
+    public int getLastHostsPinged() {
+        return _metrics.getLastHostsPinged();
+    }
+
+    @ManagedAttribute(description = "Average number of hosts a discovery round was sent to")
+    public double getAverageHostsPinged() {
+        return _metrics.getAverageHostsPinged();
+    }
+
+    @ManagedAttribute(description = "State of the circuit breaker around host lookups: CLOSED, OPEN or HALF_OPEN")
+    public String getCircuitBreakerState() {
+        CircuitBreaker breaker = _circuitBreaker;
+        return breaker != null ? breaker.getState().name() : null;
+    }
+
+    @ManagedAttribute(description = "Number of times the circuit breaker around host lookups opened")
+    public long getCircuitBreakerOpens() {
+        CircuitBreaker breaker = _circuitBreaker;
+        return breaker != null ? breaker.getOpens() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of consecutive failed host lookups")
+    public int getConsecutiveLookupFailures() {
+        CircuitBreaker breaker = _circuitBreaker;
+        return breaker != null ? breaker.getConsecutiveFailures() : 0;
+    }
+
+    @ManagedOperation(description = "Closes the circuit breaker, so the next discovery looks the hosts up again")
+    public void resetCircuitBreaker() {
+        CircuitBreaker breaker = _circuitBreaker;
+        if (breaker != null) {
+            breaker.reset();
+        }
+    }
+
+    @ManagedAttribute(description = "Time in ms since the last successful host lookup, -1 if none yet")
+    public long getTimeSinceLastLookupSuccess() {
+        return _metrics.getTimeSinceLastSuccess();
+    }
+
+    @ManagedAttribute(description = "Number of server threads handling ping requests right now")
+    public int getServerActiveThreads() {
+        ServerExecutor executor = getServerExecutor();
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of ping requests waiting for a server thread")
+    public int getServerQueueDepth() {
+        ServerExecutor executor = getServerExecutor();
+        return executor != null ? executor.getQueueDepth() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of ping requests the server turned down because its threads and queue were full")
+    public long getServerRejectedCount() {
+        ServerExecutor executor = getServerExecutor();
+        return executor != null ? executor.getRejectedCount() : 0;
+    }
+
+    private ServerExecutor getServerExecutor() {
+        Server server = _server;
+        return server instanceof AbstractServer ? ((AbstractServer) server).getExecutor() : null;
+    }
+
     protected abstract boolean isClusteringEnabled();
 
     protected abstract int getServerPort();
 
     public final void setServerFactory(ServerFactory serverFactory) {
+        _serverFactory = serverFactory;
+    }
+
+    /**
+     * @return the most threads the ping server handles requests on, or 0 for the server's default
+     */
+    public final int getServerMaxThreads() {
+        return _serverMaxThreads;
+    }
+
+    /**
+     * @return the most requests waiting for a ping server thread, or 0 for the server's default
+     */
+    public final int getServerQueueSize() {
+        return _serverQueueSize;
+    }
+
+    /**
+     * @return what the ping server does with requests beyond its threads and queue, or null for its default
+     */
+    public final RejectionPolicy getServerRejectionPolicy() {
+        return _serverRejectionPolicy;
+    }
+
+    public final boolean isServerVirtualThreads() {
+        return _serverVirtualThreads;
     }
 
     @Override
@@ -116,6 +356,43 @@ public abstract class OpenshiftPing extends PING {
         _readTimeout = getSystemEnvInt(getSystemEnvName("READ_TIMEOUT"), readTimeout);
         _operationAttempts = getSystemEnvInt(getSystemEnvName("OPERATION_ATTEMPTS"), operationAttempts);
         _operationSleep = (long) getSystemEnvInt(getSystemEnvName("OPERATION_SLEEP"), (int) operationSleep);
+        _operationMaxSleep = (long) getSystemEnvInt(getSystemEnvName("OPERATION_MAX_SLEEP"), (int) operationMaxSleep);
+        _operationDeadline = (long) getSystemEnvInt(getSystemEnvName("OPERATION_DEADLINE"), (int) operationDeadline);
+        _retryPolicy = new RetryPolicy(_operationAttempts, _operationSleep, _operationMaxSleep, _operationDeadline);
+        _circuitBreakerThreshold = getSystemEnvInt(getSystemEnvName("CIRCUIT_BREAKER_THRESHOLD"), circuitBreakerThreshold);
+        _circuitBreakerTimeout = (long) getSystemEnvInt(getSystemEnvName("CIRCUIT_BREAKER_TIMEOUT"), (int) circuitBreakerTimeout);
+        _circuitBreaker = new CircuitBreaker(getClass().getSimpleName(), _circuitBreakerThreshold, _circuitBreakerTimeout);
+        _discoveryTimeout = (long) getSystemEnvInt(getSystemEnvName("DISCOVERY_TIMEOUT"), (int) discoveryTimeout);
+        _virtualThreads = Boolean.parseBoolean(getSystemEnv(getSystemEnvName("VIRTUAL_THREADS"), String.valueOf(virtualThreads), true));
+        _httpDiscovery = Boolean.parseBoolean(getSystemEnv(getSystemEnvName("HTTP_DISCOVERY"), String.valueOf(httpDiscovery), true));
+        // a member discovering over HTTP is only reachable that way too
+        _serverEnabled = _httpDiscovery || Boolean.parseBoolean(getSystemEnv(getSystemEnvName("SERVER_ENABLED"), String.valueOf(serverEnabled), true));
+        _serverMaxThreads = getSystemEnvInt(getSystemEnvName("SERVER_MAX_THREADS"), serverMaxThreads);
+        _serverQueueSize = getSystemEnvInt(getSystemEnvName("SERVER_QUEUE_SIZE"), serverQueueSize);
+        _serverRejectionPolicy = toRejectionPolicy(getSystemEnv(getSystemEnvName("SERVER_REJECTION_POLICY"), serverRejectionPolicy, true));
+        _serverVirtualThreads = Boolean.parseBoolean(getSystemEnv(getSystemEnvName("SERVER_VIRTUAL_THREADS"), String.valueOf(serverVirtualThreads), true));
+        if (_serverEnabled && down_prot != null && _responseCapture == null) {
+            // so the responses to ping requests from the server can be returned in the HTTP response
+            ResponseCapture capture = new ResponseCapture();
+            capture.setProtocolStack(getProtocolStack());
+            capture.setUpProtocol(this);
+            // only down: what comes up from below keeps going straight to this protocol
+            capture.setDownProtocol(down_prot);
+            setDownProtocol(capture);
+            _responseCapture = capture;
+        }
+        if (_virtualThreads && !VirtualThreads.isAvailable() && log.isInfoEnabled()) {
+            log.info("virtualThreads set, but virtual threads need JDK 21+; looking up hosts on a platform thread");
+        }
+        String pFile = getSystemEnv(getSystemEnvName("PEERS_FILE"), peersFile, true);
+        if (pFile != null) {
+            _peersFile = new PeersFile(pFile);
+            // sent to right away by the first discovery, while the first lookup is still running
+            _lastKnownHosts = Collections.unmodifiableList(_peersFile.read());
+            if (log.isInfoEnabled()) {
+                log.info(String.format("read last known hosts %s from [%s]", _lastKnownHosts, _peersFile));
+            }
+        }
     }
 
     @Override
@@ -124,16 +401,112 @@ public abstract class OpenshiftPing extends PING {
         _readTimeout = 0;
         _operationAttempts = 0;
         _operationSleep = 0l;
+        _operationMaxSleep = 0l;
+        _operationDeadline = 0l;
+        _retryPolicy = null;
+        _circuitBreakerThreshold = 0;
+        _circuitBreakerTimeout = 0l;
+        _circuitBreaker = null;
+        _discoveryTimeout = 0l;
+        _virtualThreads = false;
+        _serverEnabled = false;
+        _serverMaxThreads = 0;
+        _serverQueueSize = 0;
+        _serverRejectionPolicy = null;
+        _serverVirtualThreads = false;
+        _httpDiscovery = false;
+        _peersFile = null;
+        _lastKnownHosts = Collections.emptyList();
+        removeResponseCapture();
         super.destroy();
     }
 
+    private RejectionPolicy toRejectionPolicy(String policy) {
+        if (policy == null) {
+            return null;
+        }
+        try {
+            return RejectionPolicy.valueOf(policy.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Unknown server rejection policy [%s]; using the server's default", policy));
+            }
+            return null;
+        }
+    }
+
+    private void removeResponseCapture() {
+        ResponseCapture capture = _responseCapture;
+        _responseCapture = null;
+        if (capture != null && down_prot == capture) {
+            setDownProtocol(capture.getDownProtocol());
+        }
+    }
+
     @Override
     public void start() throws Exception {
         super.start();
+        final String threadName = getClass().getSimpleName() + "-discovery";
+        // the lookups block on the master or DNS, which is what virtual threads are for
+        ThreadFactory threadFactory = _virtualThreads ? VirtualThreads.newThreadFactory(threadName + "-") : null;
+        if (threadFactory == null) {
+            threadFactory = new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        _refreshExecutor = Executors.newSingleThreadExecutor(threadFactory);
+        if (_httpDiscovery) {
+            final String httpThreadName = getClass().getSimpleName() + "-http-discovery-";
+            ThreadFactory httpThreadFactory = _virtualThreads ? VirtualThreads.newThreadFactory(httpThreadName) : null;
+            if (httpThreadFactory == null) {
+                httpThreadFactory = new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, httpThreadName + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                };
+            }
+            _httpDiscoveryExecutor = Executors.newFixedThreadPool(HTTP_DISCOVERY_THREADS, httpThreadFactory);
+        }
+        if (isClusteringEnabled()) {
+            // get the first read going while the rest of the stack starts, so the first discovery has hosts sooner
+            refreshHosts();
+            if (_serverEnabled) {
+                ServerFactory factory = _serverFactory;
+                int port = getServerPort();
+                _server = factory != null ? factory.getServer(port) : Servers.getServer(port);
+                _server.start(CompatibilityHandles.getChannel(getProtocolStack()));
+                if (log.isInfoEnabled()) {
+                    log.info(String.format("%s accepting ping requests on port [%s]", _server.getClass().getSimpleName(), port));
+                }
+            }
+        }
     }
 
     @Override
     public void stop() {
+        Server server = _server;
+        _server = null;
+        if (server != null) {
+            server.stop(CompatibilityHandles.getChannel(getProtocolStack()));
+        }
+        ExecutorService executor = _refreshExecutor;
+        _refreshExecutor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        ExecutorService httpExecutor = _httpDiscoveryExecutor;
+        _httpDiscoveryExecutor = null;
+        if (httpExecutor != null) {
+            httpExecutor.shutdownNow();
+        }
         super.stop();
     }
 
@@ -149,48 +522,349 @@ public abstract class OpenshiftPing extends PING {
         return super.down(evt);
     }
 
+    /**
+     * Handles a discovery request that came in over HTTP, as if it had come in through the transport: the sender
+     * is added to the transport's address cache and sent our discovery response.
+     */
     public void handlePingRequest(InputStream stream) throws Exception {
-        throw new UnsupportedOperationException("handlePingRequest() is no longer supported.");
+        handlePingRequest(stream, false);
+    }
+
+    /**
+     * @param returnResponses whether the sender reads our discovery responses from the HTTP response, rather than
+     *                        getting them through the transport
+     * @return the discovery responses to return, empty unless returnResponses
+     */
+    public List<Message> handlePingRequest(InputStream stream, boolean returnResponses) throws Exception {
+        return readPingRequest(new DataInputStream(stream), returnResponses);
+    }
+
+    /**
+     * Same as {@link #handlePingRequest(InputStream, boolean)}, for a request already in a buffer. The message is
+     * read from the buffer directly, heap or direct, without copying the request into a byte array first.
+     */
+    public List<Message> handlePingRequest(ByteBuffer buffer, boolean returnResponses) throws Exception {
+        return readPingRequest(new ByteBufferInputStream(buffer), returnResponses);
     }
 
-    private void sendDown(Object obj, Message msg) {
+    private List<Message> readPingRequest(DataInput in, boolean returnResponses) throws Exception {
+        Message msg = new Message();
+        msg.readFrom(in);
+        List<Message> responses = returnResponses ? new ArrayList<Message>(1) : Collections.<Message>emptyList();
+        if (returnResponses) {
+            CAPTURED_RESPONSES.set(responses);
+        }
         try {
-            if(CompatibilityUtils.isJGroups4()) {
-                sendDownMethod.invoke(obj, msg);
-            } else {
-                sendDownMethod.invoke(obj, new Event(1, msg));
-            }
+            CompatibilityHandles.up(this, msg);
         } catch (Exception e) {
-            throw new CompatibilityException("Could not invoke 'down' method.", e);
+            log.error("Error processing GET_MBRS_REQ.", e);
+        } finally {
+            CAPTURED_RESPONSES.remove();
+        }
+        for (Message response : responses) {
+            // the transport would have set it
+            response.setSrc(local_addr);
         }
+        return responses;
     }
 
     private List<InetSocketAddress> readAll() {
-        if (isClusteringEnabled()) {
-            return doReadAll(clusterName);
-        } else {
+        if (!isClusteringEnabled()) {
             return Collections.emptyList();
         }
+        Future<List<InetSocketAddress>> refresh = refreshHosts();
+        try {
+            return refresh.get(_discoveryTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // the refresh carries on in the background for the next caller
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Hosts not read within %sms; using last known hosts %s", _discoveryTimeout, _lastKnownHosts));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn(String.format("Problem reading hosts; using last known hosts %s", _lastKnownHosts), e.getCause());
+        }
+        return _lastKnownHosts;
     }
 
+    /**
+     * Starts reading the hosts in the background, unless a read is already in flight, in which case that one is
+     * returned. Either way at most one {@link #doReadAll(String)} runs at a time.
+     */
+    private HostsRefresh refreshHosts() {
+        while (true) {
+            HostsRefresh current = _refresh.get();
+            if (current != null) {
+                return current;
+            }
+            HostsRefresh task = new HostsRefresh();
+            if (_refresh.compareAndSet(null, task)) {
+                ExecutorService executor = _refreshExecutor;
+                try {
+                    if (executor == null) {
+                        throw new RejectedExecutionException("Not started");
+                    }
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // not started, or stopping; read in the caller
+                    task.run();
+                }
+                return task;
+            }
+        }
+    }
+
+    /**
+     * Reads the hosts to send discovery requests to. Never called concurrently for the same protocol instance.
+     * Implementations record a lookup in {@link #getMetrics()} only when they actually ask the master or DNS.
+     *
+     * @param clusterName the cluster name
+     * @return the hosts, or null if they could not be read, to keep using the last hosts that were
+     */
     protected abstract List<InetSocketAddress> doReadAll(String clusterName);
 
     @Override
     protected void sendMcastDiscoveryRequest(Message msg) {
-        final List<InetSocketAddress> hosts = readAll();
         final PhysicalAddress physical_addr = (PhysicalAddress) down(new Event(Event.GET_PHYSICAL_ADDRESS, local_addr));
         if (!(physical_addr instanceof IpAddress)) {
             log.error("Unable to send PING requests: physical_addr is not an IpAddress.");
             return;
         }
+        final IpAddress self = (IpAddress) physical_addr;
+        final List<InetSocketAddress> cachedHosts = _lastKnownHosts;
+        if (cachedHosts.isEmpty() || !isClusteringEnabled()) {
+            // nothing to go on yet (e.g. the first discovery at startup); wait for the hosts to be read
+            sendDiscoveryRequests(msg, readAll(), Collections.<InetSocketAddress>emptySet(), self);
+            return;
+        }
+        // send to the hosts known already, then to any new ones once the refresh is done
+        final Set<InetSocketAddress> sent = sendDiscoveryRequests(msg, cachedHosts, Collections.<InetSocketAddress>emptySet(), self);
+        final Message template = msg.copy();
+        final HostsRefresh refresh = refreshHosts();
+        refresh.whenDone(new Runnable() {
+            public void run() {
+                List<InetSocketAddress> hosts;
+                try {
+                    hosts = refresh.get();
+                } catch (Exception e) {
+                    // already logged by whoever waited on it, the next round will try again
+                    return;
+                }
+                if (down_prot != null) {
+                    sendDiscoveryRequests(template, hosts, sent, self);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends a copy of the discovery request down the stack to every host, so that the transport adds its header and
+     * the cluster name as for any other message. The request goes to the host's address on this node's own port, not
+     * on the port the host was listed with; hosts differing only by port are therefore the same destination and get
+     * the request once. This node itself is left out.
+     *
+     * @return the hosts the request was sent to, including the ones that were left out as duplicates or this node
+     */
+    private Set<InetSocketAddress> sendDiscoveryRequests(Message msg, List<InetSocketAddress> hosts, Set<InetSocketAddress> skip, IpAddress self) {
+        if (_httpDiscovery) {
+            return sendHttpDiscoveryRequests(msg, hosts, skip, self);
+        }
         // XXX: is it better to force this to be defined?
         // assume symmetry
-        final int port = ((IpAddress) physical_addr).getPort();
+        int port = self.getPort();
+        Set<InetSocketAddress> sent = new HashSet<InetSocketAddress>();
+        Set<IpAddress> destinations = new LinkedHashSet<IpAddress>();
         for (InetSocketAddress host: hosts) {
+            if (skip.contains(host) || !sent.add(host)) {
+                continue;
+            }
+            IpAddress destination = new IpAddress(host.getAddress(), port);
+            if (!destination.equals(self)) {
+                destinations.add(destination);
+            }
+        }
+        _metrics.recordHostsPinged(destinations.size());
+        for (IpAddress destination : destinations) {
             // JGroups messages cannot be reused - https://github.com/belaban/workshop/blob/master/slides/admin.adoc#problem-9-reusing-a-message-the-sebastian-problem
             Message msgToHost = msg.copy();
-            msgToHost.dest(new IpAddress(host.getAddress(), port));
-            sendDown(down_prot, msgToHost);
+            msgToHost.dest(destination);
+            CompatibilityHandles.down(down_prot, msgToHost);
+        }
+        return sent;
+    }
+
+    /**
+     * Posts the discovery request to the ping server of every host, on the host's own port, all at once. The
+     * responses come back in the HTTP responses and are passed up as if they had come in through the transport.
+     */
+    private Set<InetSocketAddress> sendHttpDiscoveryRequests(Message msg, List<InetSocketAddress> hosts, Set<InetSocketAddress> skip, IpAddress self) {
+        Set<InetSocketAddress> sent = new HashSet<InetSocketAddress>();
+        List<InetSocketAddress> destinations = new ArrayList<InetSocketAddress>();
+        for (InetSocketAddress host : hosts) {
+            if (skip.contains(host) || !sent.add(host)) {
+                continue;
+            }
+            if (!self.getIpAddress().equals(host.getAddress())) {
+                destinations.add(host);
+            }
+        }
+        _metrics.recordHostsPinged(destinations.size());
+        ExecutorService executor = _httpDiscoveryExecutor;
+        if (destinations.isEmpty() || executor == null) {
+            return sent;
+        }
+        final byte[] request;
+        try {
+            Message copy = msg.copy();
+            copy.setSrc(local_addr);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            copy.writeTo(out);
+            out.flush();
+            request = bytes.toByteArray();
+        } catch (Exception e) {
+            log.error("Unable to serialize the discovery request.", e);
+            return sent;
+        }
+        for (InetSocketAddress destination : destinations) {
+            try {
+                executor.execute(new HttpDiscoveryRequest(destination, clusterName, request));
+            } catch (RejectedExecutionException e) {
+                // stopping
+                break;
+            }
+        }
+        return sent;
+    }
+
+    private class HttpDiscoveryRequest implements Runnable {
+        private final InetSocketAddress destination;
+        private final String cluster;
+        private final byte[] request;
+
+        private HttpDiscoveryRequest(InetSocketAddress destination, String cluster, byte[] request) {
+            this.destination = destination;
+            this.cluster = cluster;
+            this.request = request;
+        }
+
+        public void run() {
+            String url = String.format("http://%s:%s/", destination.getAddress().getHostAddress(), destination.getPort());
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(Proxy.NO_PROXY);
+                connection.setConnectTimeout(_connectTimeout);
+                connection.setReadTimeout(_readTimeout);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty(Server.CLUSTER_NAME, cluster);
+                connection.setRequestProperty("Accept", PingResponses.CONTENT_TYPE);
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(request.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(request);
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    if (PingResponses.CONTENT_TYPE.equals(connection.getContentType())) {
+                        for (Message response : PingResponses.decode(in)) {
+                            CompatibilityHandles.up(OpenshiftPing.this, response);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Could not send discovery request to %s", url), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sits right below this protocol while the ping server is enabled, to take the discovery responses sent while
+     * a ping request from the server is handled, so they can go back in the HTTP response.
+     */
+    private class ResponseCapture extends Protocol {
+
+        // JGroups 4
+        public Object down(Message msg) {
+            return capture(msg) ? null : CompatibilityHandles.down(down_prot, msg);
+        }
+
+        // JGroups 3; messages are passed down wrapped in an Event
+        public Object down(Event evt) {
+            if (evt.getArg() instanceof Message && capture((Message) evt.getArg())) {
+                return null;
+            }
+            return down_prot.down(evt);
+        }
+
+        private boolean capture(Message msg) {
+            List<Message> captured = CAPTURED_RESPONSES.get();
+            if (captured != null && msg.getHeader(OpenshiftPing.this.getId()) != null) {
+                captured.add(msg);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A single read of the hosts, which other discovery requests can be chained onto.
+     */
+    private class HostsRefresh extends FutureTask<List<InetSocketAddress>> {
+        private final List<Runnable> listeners = new ArrayList<Runnable>();
+        private boolean finished;
+
+        private HostsRefresh() {
+            super(new Callable<List<InetSocketAddress>>() {
+                public List<InetSocketAddress> call() throws Exception {
+                    CircuitBreaker breaker = _circuitBreaker;
+                    if (breaker != null && breaker.isOpen()) {
+                        return _lastKnownHosts;
+                    }
+                    List<InetSocketAddress> hosts = doReadAll(clusterName);
+                    if (hosts == null) {
+                        return _lastKnownHosts;
+                    }
+                    hosts = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(hosts));
+                    PeersFile peers = _peersFile;
+                    if (peers != null && !hosts.isEmpty() && !hosts.equals(_lastKnownHosts)) {
+                        peers.write(hosts);
+                    }
+                    _lastKnownHosts = hosts;
+                    return hosts;
+                }
+            });
+        }
+
+        /**
+         * Runs the listener once the read is done, straight away if it is already.
+         */
+        private void whenDone(Runnable listener) {
+            synchronized (listeners) {
+                if (!finished) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        @Override
+        protected void done() {
+            _refresh.compareAndSet(this, null);
+            List<Runnable> toRun;
+            synchronized (listeners) {
+                finished = true;
+                toRun = new ArrayList<Runnable>(listeners);
+                listeners.clear();
+            }
+            for (Runnable listener : toRun) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    log.warn("Problem sending discovery requests to refreshed hosts", e);
+                }
+            }
         }
     }
 
@@ -0,0 +1,140 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The last hosts discovery was sent to, kept in a small file (e.g. on an emptyDir or persistent volume) so a
+ * restarted pod can send to its old peers straight away instead of waiting on its first lookup.
+ * <p>
+ * One <code>address:port</code> per line. The file is replaced atomically, so a reader never sees a partial list.
+ */
+public class PeersFile {
+    private static final Logger log = Logger.getLogger(PeersFile.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Path path;
+
+    public PeersFile(String path) {
+        this.path = Paths.get(path);
+    }
+
+    /**
+     * Reads the peers, skipping any line that can't be parsed.
+     *
+     * @return the peers, empty if the file doesn't exist or can't be read
+     */
+    public List<InetSocketAddress> read() {
+        List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int colon = line.lastIndexOf(':');
+                try {
+                    if (colon < 1) {
+                        throw new IllegalArgumentException("missing port");
+                    }
+                    String host = line.substring(0, colon);
+                    if (host.startsWith("[") && host.endsWith("]")) {
+                        host = host.substring(1, host.length() - 1);
+                    }
+                    peers.add(new InetSocketAddress(host, Integer.parseInt(line.substring(colon + 1))));
+                } catch (IllegalArgumentException iae) {
+                    if (log.isLoggable(Level.WARNING)) {
+                        log.log(Level.WARNING, String.format("Ignoring peer [%s] in [%s]: %s", line, path, iae.getMessage()));
+                    }
+                }
+            }
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            // nothing persisted yet
+        } catch (IOException ioe) {
+            if (log.isLoggable(Level.WARNING)) {
+                log.log(Level.WARNING, String.format("Could not read peers from [%s]: %s", path, ioe.getMessage()));
+            }
+            return Collections.emptyList();
+        }
+        return peers;
+    }
+
+    /**
+     * Replaces the file with the given peers. Failures are logged, not thrown; the file is only an optimization.
+     *
+     * @param peers the peers
+     */
+    public void write(List<InetSocketAddress> peers) {
+        Path tmp = null;
+        try {
+            Path dir = path.toAbsolutePath().getParent();
+            tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), UTF_8))) {
+                for (InetSocketAddress peer : peers) {
+                    String host = peer.getAddress() != null ? peer.getAddress().getHostAddress() : peer.getHostString();
+                    if (host.indexOf(':') != -1) {
+                        host = "[" + host + "]";
+                    }
+                    writer.write(host + ":" + peer.getPort());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ioe) {
+                // e.g. a file system without atomic moves
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException ioe) {
+            if (log.isLoggable(Level.WARNING)) {
+                log.log(Level.WARNING, String.format("Could not write peers to [%s]: %s", path, ioe.getMessage()));
+            }
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public String toString() {
+        return path.toString();
+    }
+}
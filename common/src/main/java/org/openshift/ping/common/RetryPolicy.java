@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.common;
+
+import java.net.MalformedURLException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.openshift.ping.common.stream.HttpResponseException;
+
+/**
+ * How {@link Utils#execute(java.util.concurrent.Callable, RetryPolicy, boolean, DiscoveryMetrics)} retries an operation.
+ * <p>
+ * Sleeps between attempts use "decorrelated jitter": each one is picked at random between the base sleep and three
+ * times the previous sleep, capped at maxSleep. Pods that failed together therefore don't retry the master together.
+ * When maxSleep is not above the base sleep, every sleep is exactly the base sleep. An optional deadline bounds the
+ * whole operation: no retry is started if its sleep would run past it, and {@link Utils#openStream} cuts each
+ * attempt's connect and read timeouts down to the time that is left. Failures that cannot get better by retrying
+ * (see {@link #isRetryable(Throwable)}) end the operation straight away.
+ * <p>
+ * The clock the deadline is measured with and the sleeps themselves go through {@link #currentTimeMillis()} and
+ * {@link #sleep(long)}, which tests override to run without waiting.
+ */
+public class RetryPolicy {
+    private final int attempts;
+    private final long sleep;
+    private final long maxSleep;
+    private final long deadline;
+
+    /**
+     * @param deadline the budget in milliseconds for all attempts together, or 0 for none
+     */
+    public RetryPolicy(int attempts, long sleep, long maxSleep, long deadline) {
+        this.attempts = attempts;
+        this.sleep = Math.max(0, sleep);
+        this.maxSleep = Math.max(this.sleep, maxSleep);
+        this.deadline = Math.max(0, deadline);
+    }
+
+    /**
+     * A fixed sleep between attempts, without a deadline.
+     */
+    public static RetryPolicy fixed(int attempts, long sleep) {
+        return new RetryPolicy(attempts, sleep, sleep, 0);
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public long getSleep() {
+        return sleep;
+    }
+
+    public long getMaxSleep() {
+        return maxSleep;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param previousSleep the sleep before the previous attempt, or 0 before the first retry
+     */
+    public long nextSleep(long previousSleep) {
+        if (maxSleep == sleep) {
+            return sleep;
+        }
+        long previous = Math.max(sleep, previousSleep);
+        long upper = previous > maxSleep / 3 ? maxSleep : previous * 3;
+        return sleep + ThreadLocalRandom.current().nextLong(upper - sleep + 1);
+    }
+
+    /**
+     * @return the time the deadline is measured with, in milliseconds
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Waits before the next attempt.
+     */
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    /**
+     * Whether the operation should be attempted again after this failure. Requests the master turned down
+     * (other than for timeouts, throttling, an expired token or its own errors), malformed URLs and TLS/key
+     * problems won't succeed on the next attempt; anything else, e.g. a refused connection, might. A 401 is
+     * retried because the service account token is read again for every request, and may just have been rotated.
+     */
+    public boolean isRetryable(Throwable fail) {
+        for (Throwable t = fail; t != null; t = t.getCause() != t ? t.getCause() : null) {
+            if (t instanceof HttpResponseException) {
+                int code = ((HttpResponseException) t).getResponseCode();
+                return code == 401 || code == 408 || code == 429 || code >= 500;
+            }
+            if (t instanceof MalformedURLException
+                    || t instanceof GeneralSecurityException
+                    || t instanceof SSLPeerUnverifiedException
+                    || t instanceof SecurityException) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[attempts=%s, sleep=%s, maxSleep=%s, deadline=%s]", getClass().getSimpleName(), attempts, sleep, maxSleep, deadline);
+    }
+}
@@ -42,12 +42,9 @@ import org.openshift.ping.common.stream.StreamProvider;
 public final class Utils {
     private static final Logger log = Logger.getLogger(Utils.class.getName());
 
-    public static final InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout, int attempts, long sleep) throws Exception {
-        return openStream(url, headers, connectTimeout, readTimeout, attempts, sleep, null);
-    }
-
-    public static final InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout, int attempts, long sleep, StreamProvider streamProvider) throws Exception {
-        return execute(new OpenStream(streamProvider, url, headers, connectTimeout, readTimeout), attempts, sleep, true);
+    public static final InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout, RetryPolicy policy, StreamProvider streamProvider, DiscoveryMetrics metrics) throws Exception {
+        InputStream stream = execute(new OpenStream(streamProvider, url, headers, connectTimeout, readTimeout, policy), policy, true, metrics);
+        return (metrics != null && stream != null) ? metrics.countBytes(stream) : stream;
     }
 
     public static final InputStream openFile(String name) throws FileNotFoundException {
@@ -191,40 +188,48 @@ public final class Utils {
         }
     }
 
-    public static final <V> V execute(Callable<V> callable, int attempts, long sleep) {
-        try {
-            return execute(callable, attempts, sleep, false);
-        } catch (Exception e) {
-            // exception message logged in overloaded method below
-            return null;
-        }
-    }
-
-    public static final <V> V execute(Callable<V> callable, int attempts, long sleep, boolean throwOnFail) throws Exception {
+    public static final <V> V execute(Callable<V> callable, RetryPolicy policy, boolean throwOnFail, DiscoveryMetrics metrics) throws Exception {
         V value = null;
-        int tries = attempts;
+        int attempt = 0;
+        long sleep = 0;
+        long deadline = policy.getDeadline() > 0 ? policy.currentTimeMillis() + policy.getDeadline() : Long.MAX_VALUE;
         Throwable lastFail = null;
-        while (tries > 0) {
-            tries--;
+        while (attempt < policy.getAttempts()) {
+            attempt++;
             try {
                value = callable.call();
+               // an attempt that found nothing still answered; only a failed last attempt is rethrown
+               lastFail = null;
                if (value != null) {
-                   lastFail = null;
                    break;
                }
             } catch (Throwable fail) {
                 lastFail = fail;
+                if (!policy.isRetryable(fail)) {
+                    break;
+                }
+            }
+            if (attempt == policy.getAttempts()) {
+                break;
+            }
+            sleep = policy.nextSleep(sleep);
+            if (deadline - policy.currentTimeMillis() <= sleep) {
+                // the next attempt would start after the deadline
+                break;
+            }
+            if (metrics != null) {
+                metrics.recordRetries(1);
             }
             try {
-                Thread.sleep(sleep);
+                policy.sleep(sleep);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new RuntimeException(e);
             }
         }
         if (lastFail != null && (throwOnFail || log.isLoggable(Level.INFO))) {
-            String emsg = String.format("%s attempt(s) with a %sms sleep to execute [%s] failed. Last failure was [%s: %s]",
-                    attempts, sleep, callable.getClass().getSimpleName(), lastFail.getClass().getName(), lastFail.getMessage());
+            String emsg = String.format("%s attempt(s) with %s to execute [%s] failed. Last failure was [%s: %s]",
+                    attempt, policy, callable.getClass().getSimpleName(), lastFail.getClass().getName(), lastFail.getMessage());
             if (throwOnFail) {
                 throw new Exception(emsg, lastFail);
             } else {
@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Virtual threads (JDK 21+), looked up reflectively so the code still builds and runs on older JDKs.
+ */
+public final class VirtualThreads {
+    private static final Logger log = Logger.getLogger(VirtualThreads.class.getName());
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (Exception e) {
+            // before JDK 21
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * A factory of virtual threads named prefix0, prefix1, ..., or null when virtual threads are not available.
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+                return (ThreadFactory) FACTORY.invoke(builder);
+            } catch (Exception e) {
+                if (log.isLoggable(Level.WARNING)) {
+                    log.log(Level.WARNING, "Could not create a virtual thread factory", e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private VirtualThreads() {}
+}
@@ -0,0 +1,142 @@
+package org.openshift.ping.common.compatibility;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.jgroups.Event;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+
+/**
+ * JGroups 3/4 specific entry points, bound once to constant {@link MethodHandle}s so calls through them can be
+ * inlined like direct calls, instead of going through {@link Method#invoke} and a version check every time.
+ */
+public class CompatibilityHandles {
+
+   /**
+    * <code>Object down(Protocol, Message)</code>
+    */
+   private static final MethodHandle DOWN;
+
+   /**
+    * <code>Object up(Protocol, Message)</code>
+    */
+   private static final MethodHandle UP;
+
+   /**
+    * <code>String cluster_name(JChannel)</code>, or null if the field cannot be accessed.
+    */
+   private static final MethodHandle CLUSTER_NAME;
+
+   /**
+    * <code>JChannel getChannel(ProtocolStack)</code>
+    */
+   private static final MethodHandle GET_CHANNEL;
+
+   static {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      MethodType messageType = MethodType.methodType(Object.class, Protocol.class, Message.class);
+      try {
+         if (CompatibilityUtils.isJGroups4()) {
+            DOWN = lookup.findVirtual(Protocol.class, "down", MethodType.methodType(Object.class, Message.class));
+            UP = lookup.findVirtual(Protocol.class, "up", MethodType.methodType(Object.class, Message.class));
+         } else {
+            // JGroups 3 passes messages wrapped in an Event
+            MethodHandle toEvent = lookup.findStatic(CompatibilityHandles.class, "toEvent", MethodType.methodType(Event.class, Message.class));
+            MethodHandle down = lookup.findVirtual(Protocol.class, "down", MethodType.methodType(Object.class, Event.class));
+            MethodHandle up = lookup.findVirtual(Protocol.class, "up", MethodType.methodType(Object.class, Event.class));
+            DOWN = MethodHandles.filterArguments(down, 1, toEvent).asType(messageType);
+            UP = MethodHandles.filterArguments(up, 1, toEvent).asType(messageType);
+         }
+      } catch (Exception e) {
+         throw new CompatibilityException("Could not find suitable 'down' and 'up' methods.", e);
+      }
+      try {
+         // returns a JChannel in JGroups 4, a Channel in JGroups 3
+         Class<?> channelType = CompatibilityUtils.isJGroups4() ? JChannel.class : Class.forName("org.jgroups.Channel");
+         GET_CHANNEL = lookup.findVirtual(ProtocolStack.class, "getChannel", MethodType.methodType(channelType))
+               .asType(MethodType.methodType(JChannel.class, ProtocolStack.class));
+      } catch (Exception e) {
+         throw new CompatibilityException("Could not find suitable 'getChannel' method.", e);
+      }
+      CLUSTER_NAME = findClusterName(lookup);
+   }
+
+   private CompatibilityHandles() {
+   }
+
+   /**
+    * Passes the message down to the protocol.
+    */
+   public static Object down(Protocol protocol, Message msg) {
+      try {
+         return (Object) DOWN.invokeExact(protocol, msg);
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable t) {
+         throw new CompatibilityException("Could not invoke 'down' method.", t);
+      }
+   }
+
+   /**
+    * Passes the message up to the protocol.
+    */
+   public static Object up(Protocol protocol, Message msg) {
+      try {
+         return (Object) UP.invokeExact(protocol, msg);
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable t) {
+         throw new CompatibilityException("Could not invoke 'up' method.", t);
+      }
+   }
+
+   /**
+    * @return the cluster name the channel is, or is being, connected to; unlike {@link JChannel#getClusterName()}
+    * this is available while the channel is still connecting.
+    */
+   public static String getClusterName(JChannel channel) {
+      String clusterName = channel.getClusterName();
+      if (clusterName == null && CLUSTER_NAME != null) {
+         try {
+            clusterName = (String) CLUSTER_NAME.invokeExact(channel);
+         } catch (Throwable t) {
+            // not available
+         }
+      }
+      return clusterName;
+   }
+
+   /**
+    * @return the channel the stack belongs to
+    */
+   public static JChannel getChannel(ProtocolStack stack) {
+      try {
+         return (JChannel) GET_CHANNEL.invokeExact(stack);
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable t) {
+         throw new CompatibilityException("Could not invoke 'getChannel' method.", t);
+      }
+   }
+
+   private static Event toEvent(Message msg) {
+      // Event.MSG, which JGroups 4 no longer defines
+      return new Event(1, msg);
+   }
+
+   private static MethodHandle findClusterName(MethodHandles.Lookup lookup) {
+      try {
+         Field field = JChannel.class.getDeclaredField("cluster_name");
+         field.setAccessible(true);
+         return lookup.unreflectGetter(field).asType(MethodType.methodType(String.class, JChannel.class));
+      } catch (Exception e) {
+         return null;
+      }
+   }
+}
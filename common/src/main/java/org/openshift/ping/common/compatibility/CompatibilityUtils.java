@@ -9,6 +9,8 @@ import org.jgroups.Version;
  */
 public class CompatibilityUtils {
 
+   private static final boolean JGROUPS_4 = Version.decode(Version.version)[0] == 4;
+
    private CompatibilityUtils() {
    }
 
@@ -16,7 +18,6 @@ public class CompatibilityUtils {
     * @return <code>true</code> when JGroups 4 is on the classpath. <code>false</code> otherwise.
     */
    public static boolean isJGroups4() {
-      final short[] decodedVersion = Version.decode(Version.version);
-      return decodedVersion[0] == 4;
+      return JGROUPS_4;
    }
 }
@@ -17,12 +17,16 @@
 package org.openshift.ping.common.server;
 
 import java.io.InputStream;
-import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jgroups.JChannel;
+import org.jgroups.Message;
 import org.openshift.ping.common.OpenshiftPing;
+import org.openshift.ping.common.compatibility.CompatibilityHandles;
+import org.openshift.ping.common.server.ServerExecutor.RejectionPolicy;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
@@ -30,64 +34,114 @@ import org.openshift.ping.common.OpenshiftPing;
 public abstract class AbstractServer implements Server {
 
     protected final int port;
-    protected final Map<String, JChannel> CHANNELS = new HashMap<>();
+    // read on every request, so lookups don't lock; the cluster name handle is resolved once in CompatibilityHandles
+    protected final ConcurrentMap<String, JChannel> CHANNELS = new ConcurrentHashMap<>();
 
     protected AbstractServer(int port) {
         this.port = port;
     }
 
     public final JChannel getChannel(String clusterName) {
-        if (clusterName != null) {
-            synchronized (CHANNELS) {
-                return CHANNELS.get(clusterName);
-            }
-        }
-        return null;
+        return clusterName != null ? CHANNELS.get(clusterName) : null;
     }
 
     protected final void addChannel(JChannel channel) {
         String clusterName = getClusterName(channel);
         if (clusterName != null) {
-            synchronized (CHANNELS) {
-                CHANNELS.put(clusterName, channel);
-            }
+            CHANNELS.put(clusterName, channel);
         }
     }
 
     protected final void removeChannel(JChannel channel) {
         String clusterName = getClusterName(channel);
         if (clusterName != null) {
-            synchronized (CHANNELS) {
-                CHANNELS.remove(clusterName);
-            }
+            // only if it's still this channel registered under the name
+            CHANNELS.remove(clusterName, channel);
         }
     }
 
     protected final boolean hasChannels() {
-        synchronized (CHANNELS) {
-            return !CHANNELS.isEmpty();
-        }
+        return !CHANNELS.isEmpty();
+    }
+
+    /**
+     * Creates the pool for this server's requests, configured by the server settings of the channel's
+     * {@link OpenshiftPing}. The servers of all protocols on one port are the same server, so the protocol that
+     * starts it decides. Settings left at 0, or unset, take the server's defaults; the rejection policy defaults
+     * to {@link RejectionPolicy#CALLER_RUNS}.
+     */
+    protected final ServerExecutor createExecutor(JChannel channel, String name, int defaultMaxThreads, int defaultQueueSize) {
+        OpenshiftPing ping = findPing(channel);
+        RejectionPolicy rejectionPolicy = ping != null ? ping.getServerRejectionPolicy() : null;
+        return createExecutor(channel, name, defaultMaxThreads, defaultQueueSize, rejectionPolicy != null ? rejectionPolicy : RejectionPolicy.CALLER_RUNS);
+    }
+
+    /**
+     * Same as {@link #createExecutor(JChannel, String, int, int)}, for servers which handle rejections in their own
+     * way and so need the given rejection policy whatever the protocol configures.
+     */
+    protected final ServerExecutor createExecutor(JChannel channel, String name, int defaultMaxThreads, int defaultQueueSize, RejectionPolicy rejectionPolicy) {
+        OpenshiftPing ping = findPing(channel);
+        int maxThreads = ping != null && ping.getServerMaxThreads() > 0 ? ping.getServerMaxThreads() : defaultMaxThreads;
+        int queueSize = ping != null && ping.getServerQueueSize() > 0 ? ping.getServerQueueSize() : defaultQueueSize;
+        return new ServerExecutor(name, maxThreads, queueSize, rejectionPolicy, isVirtualThreadsEnabled(channel));
+    }
+
+    /**
+     * @return whether the channel's {@link OpenshiftPing} asks for request handlers to run on virtual threads
+     */
+    protected final boolean isVirtualThreadsEnabled(JChannel channel) {
+        OpenshiftPing ping = findPing(channel);
+        return ping != null && ping.isServerVirtualThreads();
+    }
+
+    private static OpenshiftPing findPing(JChannel channel) {
+        return channel != null ? (OpenshiftPing) channel.getProtocolStack().findProtocol(OpenshiftPing.class) : null;
+    }
+
+    /**
+     * @return the pool handling this server's requests, or null if it has none of its own or is not running
+     */
+    public ServerExecutor getExecutor() {
+        return null;
     }
 
     private String getClusterName(final JChannel channel) {
+        // the channel may not be connected yet, but we still need its cluster name!
+        return channel != null ? CompatibilityHandles.getClusterName(channel) : null;
+    }
+
+    /**
+     * Handles a request whose body was read into a single buffer, without copying it out first.
+     *
+     * @return the response body, see {@link #handlePingRequest(JChannel, InputStream, String)}
+     */
+    protected final byte[] handlePingRequest(JChannel channel, ByteBuffer buffer, String accept) throws Exception {
         if (channel != null) {
-            String clusterName = channel.getClusterName();
-            // clusterName will be null if the Channel is not yet connected, but we still need it!
-            if (clusterName == null) {
-                try {
-                    Field field = JChannel.class.getDeclaredField("cluster_name");
-                    field.setAccessible(true);
-                    return (String)field.get(channel);
-                } catch (Throwable t) {}
-            }
+            OpenshiftPing handler = (OpenshiftPing) channel.getProtocolStack().findProtocol(OpenshiftPing.class);
+            return encode(handler.handlePingRequest(buffer, acceptsPingResponses(accept)));
         }
         return null;
     }
 
-    protected final void handlePingRequest(JChannel channel, InputStream stream) throws Exception {
+    /**
+     * @param accept the request's Accept header; only senders accepting {@link PingResponses} get the discovery
+     *               responses back over HTTP, others get them through the transport as before
+     * @return the discovery responses as {@link PingResponses}, or null if there are none to send back
+     */
+    protected final byte[] handlePingRequest(JChannel channel, InputStream stream, String accept) throws Exception {
     	if (channel != null) {
     		OpenshiftPing handler = (OpenshiftPing) channel.getProtocolStack().findProtocol(OpenshiftPing.class);
-            handler.handlePingRequest(stream);
+            return encode(handler.handlePingRequest(stream, acceptsPingResponses(accept)));
     	}
+    	return null;
+    }
+
+    private static boolean acceptsPingResponses(String accept) {
+        return accept != null && accept.contains(PingResponses.CONTENT_TYPE);
+    }
+
+    private static byte[] encode(List<Message> responses) throws Exception {
+        return responses.isEmpty() ? null : PingResponses.encode(responses);
     }
 }
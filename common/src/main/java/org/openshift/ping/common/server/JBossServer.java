@@ -19,7 +19,6 @@ package org.openshift.ping.common.server;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 
 import org.jboss.com.sun.net.httpserver.HttpExchange;
 import org.jboss.com.sun.net.httpserver.HttpHandler;
@@ -33,6 +32,7 @@ public class JBossServer extends AbstractServer {
     private static final byte[] RESPONSE_BYTES = "OK".getBytes();
 
     private HttpServer server;
+    private ServerExecutor executor;
 
     public JBossServer(int port) {
         super(port);
@@ -44,12 +44,14 @@ public class JBossServer extends AbstractServer {
             try {
                 InetSocketAddress address = new InetSocketAddress("0.0.0.0", port);
                 server = HttpServer.create(address, 0);
-                server.setExecutor(Executors.newCachedThreadPool());
+                executor = createExecutor(channel, "JBossServer-" + port, ServerExecutor.DEFAULT_MAX_THREADS, ServerExecutor.DEFAULT_QUEUE_SIZE);
+                server.setExecutor(executor);
                 server.createContext("/", new Handler(this));
                 server.start();
                 started = true;
             } catch (Exception e) {
                 server = null;
+                shutdownExecutor();
                 throw e;
             }
         }
@@ -66,11 +68,27 @@ public class JBossServer extends AbstractServer {
                 stopped = true;
             } finally {
                 server = null;
+                shutdownExecutor();
             }
         }
         return stopped;
     }
 
+    /**
+     * @return the pool handling this server's requests, or null while it is not running
+     */
+    @Override
+    public synchronized ServerExecutor getExecutor() {
+        return executor;
+    }
+
+    private void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
     private class Handler implements HttpHandler {
         private final Server server;
 
@@ -83,11 +101,17 @@ public class JBossServer extends AbstractServer {
                 try {
                     String clusterName = exchange.getRequestHeaders().getFirst(CLUSTER_NAME);
                     JChannel channel = server.getChannel(clusterName);
+                    byte[] responses;
                     try (InputStream stream = exchange.getRequestBody()) {
-                        handlePingRequest(channel, stream);
+                        responses = handlePingRequest(channel, stream, exchange.getRequestHeaders().getFirst("Accept"));
+                    }
+                    if (responses != null) {
+                        exchange.getResponseHeaders().set("Content-Type", PingResponses.CONTENT_TYPE);
+                    } else {
+                        responses = RESPONSE_BYTES;
                     }
-                    exchange.sendResponseHeaders(200, RESPONSE_BYTES.length);
-                    exchange.getResponseBody().write(RESPONSE_BYTES);
+                    exchange.sendResponseHeaders(200, responses.length);
+                    exchange.getResponseBody().write(responses);
                 } catch (Exception e) {
                     throw new IOException(e);
                 }
@@ -0,0 +1,577 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jgroups.JChannel;
+
+/**
+ * A small HTTP server on a single NIO selector thread, needing nothing beyond the JDK.
+ * <p>
+ * Connections are accepted and their requests read without blocking, into buffers taken from a pool. Only once a
+ * request's body is complete is it handed to one of a fixed number of workers, which deserializes it straight from
+ * those buffers. Slow or idle clients therefore never tie up a thread. When all workers are busy and their queue is
+ * full, requests are answered with 503 straight away.
+ * Each connection carries a single request: the response asks the client to close it. Connections that make no
+ * progress for the idle timeout, other than those waiting on a worker, are closed.
+ */
+public class NioServer extends AbstractServer {
+    private static final Logger log = Logger.getLogger(NioServer.class.getName());
+
+    public static final int DEFAULT_WORKERS = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    static final int BUFFER_SIZE = 8192;
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final int QUEUED_REQUESTS_PER_WORKER = 64;
+    private static final long STOP_TIMEOUT = 5000;
+
+    private static final byte[] HEADERS_END = {'\r', '\n', '\r', '\n'};
+
+    private final int workers;
+    private final long idleTimeout;
+    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+
+    private ServerExecutor executor;
+    private SelectorLoop selectorLoop;
+    private Thread selectorThread;
+
+    public NioServer(int port) {
+        this(port, DEFAULT_WORKERS);
+    }
+
+    public NioServer(int port, int workers) {
+        this(port, workers, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param idleTimeout how long, in milliseconds, a connection may go without any progress before it is closed
+     */
+    public NioServer(int port, int workers, long idleTimeout) {
+        super(port);
+        this.workers = Math.max(1, workers);
+        this.idleTimeout = Math.max(1, idleTimeout);
+    }
+
+    public synchronized boolean start(JChannel channel) throws Exception {
+        boolean started = false;
+        if (selectorLoop == null) {
+            ServerSocketChannel serverChannel = null;
+            Selector selector = null;
+            try {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.socket().setReuseAddress(true);
+                serverChannel.bind(new InetSocketAddress("0.0.0.0", port));
+                selector = Selector.open();
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (Exception e) {
+                if (serverChannel != null) {
+                    closeQuietly(serverChannel);
+                }
+                if (selector != null) {
+                    closeQuietly(selector);
+                }
+                throw e;
+            }
+            // rejections are answered with a 503, on the selector thread
+            executor = createExecutor(channel, "NioServer-" + port + "-worker", workers,
+                    workers * QUEUED_REQUESTS_PER_WORKER, ServerExecutor.RejectionPolicy.ABORT);
+            selectorLoop = new SelectorLoop(selector, serverChannel);
+            selectorThread = new NamedThreadFactory("NioServer-" + port + "-selector-").newThread(selectorLoop);
+            selectorThread.start();
+            started = true;
+        }
+        addChannel(channel);
+        return started;
+    }
+
+    public synchronized boolean stop(JChannel channel) {
+        boolean stopped = false;
+        removeChannel(channel);
+        if (selectorLoop != null && !hasChannels()) {
+            close();
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * @return the pool handling this server's requests, or null while it is not running
+     */
+    @Override
+    public synchronized ServerExecutor getExecutor() {
+        return executor;
+    }
+
+    private void close() {
+        executor.shutdownNow();
+        executor = null;
+        // the selector thread closes the connections, the server socket and the selector itself
+        selectorLoop.stop();
+        try {
+            // so the port is free again once this returns
+            selectorThread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selectorLoop = null;
+        selectorThread = null;
+        pendingWrites.clear();
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            bufferPool.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing left to do with it
+        }
+    }
+
+    private class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final ServerSocketChannel serverChannel;
+        private volatile boolean stopped;
+
+        private SelectorLoop(Selector selector, ServerSocketChannel serverChannel) {
+            this.selector = selector;
+            this.serverChannel = serverChannel;
+        }
+
+        private void stop() {
+            stopped = true;
+            selector.wakeup();
+        }
+
+        public void run() {
+            // often enough to close idle connections within about a tenth of the timeout past it
+            long checkInterval = Math.max(1, idleTimeout / 10);
+            long nextCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkInterval);
+            try {
+                while (!stopped) {
+                    selector.select(checkInterval);
+                    if (stopped) {
+                        break;
+                    }
+                    Connection pending;
+                    while ((pending = pendingWrites.poll()) != null) {
+                        pending.startWriting();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept(key);
+                            } else if (key.isReadable()) {
+                                ((Connection) key.attachment()).read();
+                            } else if (key.isWritable()) {
+                                ((Connection) key.attachment()).write();
+                            }
+                        } catch (IOException e) {
+                            if (log.isLoggable(Level.FINE)) {
+                                log.log(Level.FINE, "Closing connection after I/O failure", e);
+                            }
+                            if (key.attachment() instanceof Connection) {
+                                ((Connection) key.attachment()).close();
+                            }
+                        }
+                    }
+                    long now = System.nanoTime();
+                    if (now - nextCheck >= 0) {
+                        closeIdleConnections(now);
+                        nextCheck = now + TimeUnit.MILLISECONDS.toNanos(checkInterval);
+                    }
+                }
+            } catch (Exception e) {
+                // anything but being stopped leaves the server unable to answer
+                if (log.isLoggable(Level.WARNING)) {
+                    log.log(Level.WARNING, "NioServer selector loop failed", e);
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                closeQuietly(serverChannel);
+                closeQuietly(selector);
+            }
+        }
+
+        private void closeIdleConnections(long now) {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.attachment() instanceof Connection) {
+                    Connection connection = (Connection) key.attachment();
+                    // no interest while a worker handles the request; it is answered when done
+                    if (key.interestOps() != 0 && now - connection.lastActive >= timeout) {
+                        if (log.isLoggable(Level.FINE)) {
+                            log.fine("Closing idle connection " + connection.socket);
+                        }
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        private void accept(SelectionKey key) throws IOException {
+            SocketChannel socket = ((ServerSocketChannel) key.channel()).accept();
+            if (socket != null) {
+                socket.configureBlocking(false);
+                Connection connection = new Connection(socket);
+                connection.key = socket.register(selector, SelectionKey.OP_READ, connection);
+            }
+        }
+    }
+
+    /**
+     * The state of one request: its header, the body read so far and, once handled, the response.
+     */
+    private class Connection implements Runnable {
+        private final SocketChannel socket;
+        private SelectionKey key;
+        private long lastActive = System.nanoTime();
+
+        private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        private boolean headerRead;
+        private boolean handling;
+        private int bodyStart;
+        private int contentLength;
+        private int bodyRead;
+        private String clusterName;
+        private String accept;
+        private ByteBuffer response;
+
+        private Connection(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        private void read() throws IOException {
+            if (buffers.isEmpty()) {
+                buffers.add(acquireBuffer());
+            }
+            ByteBuffer buffer = buffers.get(buffers.size() - 1);
+            if (!buffer.hasRemaining()) {
+                if (!headerRead) {
+                    respond(431, "Request Header Fields Too Large");
+                    return;
+                }
+                buffer = acquireBuffer();
+                buffers.add(buffer);
+            }
+            int read = socket.read(buffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            if (read > 0) {
+                lastActive = System.nanoTime();
+            }
+            if (!headerRead) {
+                if (!readHeader(buffer)) {
+                    return;
+                }
+                bodyRead = buffer.position() - bodyStart;
+            } else {
+                bodyRead += read;
+            }
+            if (bodyRead >= contentLength) {
+                key.interestOps(0);
+                handling = true;
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    handling = false;
+                    respond(503, "Service Unavailable");
+                }
+            }
+        }
+
+        /**
+         * @return whether the whole header was read and parsed, and the request should be read on
+         */
+        private boolean readHeader(ByteBuffer buffer) throws IOException {
+            int end = indexOf(buffer, HEADERS_END);
+            if (end < 0) {
+                return false;
+            }
+            headerRead = true;
+            bodyStart = end + HEADERS_END.length;
+            byte[] bytes = new byte[end];
+            ByteBuffer header = buffer.duplicate();
+            header.flip();
+            header.get(bytes);
+            String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    String name = lines[i].substring(0, colon).trim();
+                    String value = lines[i].substring(colon + 1).trim();
+                    if ("Content-Length".equalsIgnoreCase(name)) {
+                        try {
+                            contentLength = Integer.parseInt(value);
+                        } catch (NumberFormatException e) {
+                            respond(400, "Bad Request");
+                            return false;
+                        }
+                    } else if (CLUSTER_NAME.equalsIgnoreCase(name)) {
+                        clusterName = value;
+                    } else if ("Accept".equalsIgnoreCase(name)) {
+                        accept = value;
+                    } else if ("Transfer-Encoding".equalsIgnoreCase(name) && !"identity".equalsIgnoreCase(value)) {
+                        respond(411, "Length Required");
+                        return false;
+                    }
+                }
+            }
+            if (contentLength < 0 || contentLength > MAX_BODY_SIZE) {
+                respond(413, "Payload Too Large");
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Handles the complete request, on a worker.
+         */
+        public void run() {
+            int status = 200;
+            String reason = "OK";
+            byte[] responses = null;
+            try {
+                JChannel channel = getChannel(clusterName);
+                if (buffers.size() == 1) {
+                    // the usual case: a ping request is much smaller than a buffer, so it is read right where it landed
+                    ByteBuffer body = buffers.get(0).duplicate();
+                    body.flip();
+                    body.position(bodyStart);
+                    body.limit(bodyStart + contentLength);
+                    responses = handlePingRequest(channel, body.slice(), accept);
+                } else {
+                    try (InputStream stream = new BuffersInputStream(buffers, bodyStart, contentLength)) {
+                        responses = handlePingRequest(channel, stream, accept);
+                    }
+                }
+            } catch (Exception e) {
+                if (log.isLoggable(Level.WARNING)) {
+                    log.log(Level.WARNING, String.format("Could not handle ping request for cluster [%s]", clusterName), e);
+                }
+                status = 500;
+                reason = "Internal Server Error";
+                responses = null;
+            } finally {
+                releaseBuffers();
+            }
+            response = responses != null ? createResponse(PingResponses.CONTENT_TYPE, responses) : createResponse(status, reason);
+            pendingWrites.offer(this);
+            key.selector().wakeup();
+        }
+
+        private void respond(int status, String reason) {
+            releaseBuffers();
+            response = createResponse(status, reason);
+            startWriting();
+        }
+
+        private void startWriting() {
+            lastActive = System.nanoTime();
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void write() throws IOException {
+            if (socket.write(response) > 0) {
+                lastActive = System.nanoTime();
+            }
+            if (!response.hasRemaining()) {
+                close();
+            }
+        }
+
+        private void releaseBuffers() {
+            synchronized (buffers) {
+                for (ByteBuffer buffer : buffers) {
+                    releaseBuffer(buffer);
+                }
+                buffers.clear();
+            }
+        }
+
+        private void close() {
+            key.cancel();
+            closeQuietly(socket);
+            if (!handling) {
+                // a worker reading the body releases the buffers when it is done with them
+                releaseBuffers();
+            }
+        }
+    }
+
+    private static ByteBuffer createResponse(int status, String reason) {
+        String body = status == 200 ? "OK" : reason;
+        String response = String.format("HTTP/1.1 %s %s\r\nContent-Type: text/plain\r\nContent-Length: %s\r\nConnection: close\r\n\r\n%s",
+                status, reason, body.length(), body);
+        return ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static ByteBuffer createResponse(String contentType, byte[] body) {
+        byte[] head = String.format("HTTP/1.1 200 OK\r\nContent-Type: %s\r\nContent-Length: %s\r\nConnection: close\r\n\r\n",
+                contentType, body.length).getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer response = ByteBuffer.allocate(head.length + body.length);
+        response.put(head).put(body);
+        response.flip();
+        return response;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] pattern) {
+        int limit = buffer.position() - pattern.length;
+        for (int i = 0; i <= limit; i++) {
+            int j = 0;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a request body straight out of the buffers it was read into.
+     */
+    private static class BuffersInputStream extends InputStream {
+        private final List<ByteBuffer> buffers;
+        private int index;
+        private int remaining;
+        private ByteBuffer current;
+
+        private BuffersInputStream(List<ByteBuffer> buffers, int offset, int length) {
+            this.buffers = buffers;
+            this.remaining = length;
+            if (!buffers.isEmpty()) {
+                current = buffers.get(0).duplicate();
+                current.flip();
+                current.position(offset);
+            }
+        }
+
+        private boolean advance() {
+            while (current != null && !current.hasRemaining()) {
+                index++;
+                if (index < buffers.size()) {
+                    current = buffers.get(index).duplicate();
+                    current.flip();
+                } else {
+                    current = null;
+                }
+            }
+            return current != null && remaining > 0;
+        }
+
+        @Override
+        public int read() {
+            if (!advance()) {
+                return -1;
+            }
+            remaining--;
+            return current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(len, Math.min(remaining, current.remaining()));
+            current.get(b, off, n);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current != null ? Math.min(remaining, current.remaining()) : 0;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jgroups.Message;
+
+/**
+ * The body of a ping server's answer to a discovery request: the discovery responses, so a peer that can reach
+ * us only over HTTP still gets them. Written as a count followed by the messages, as the transport writes them.
+ */
+public final class PingResponses {
+    public static final String CONTENT_TYPE = "application/x-jgroups-ping-responses";
+
+    public static byte[] encode(List<Message> responses) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 * Math.max(1, responses.size()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(responses.size());
+        for (Message response : responses) {
+            response.writeTo(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static List<Message> decode(InputStream stream) throws Exception {
+        DataInputStream in = new DataInputStream(stream);
+        int count = in.readInt();
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        List<Message> responses = new ArrayList<Message>(Math.min(count, 16));
+        for (int i = 0; i < count; i++) {
+            Message response = new Message();
+            response.readFrom(in);
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private PingResponses() {}
+}
@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openshift.ping.common.VirtualThreads;
+
+/**
+ * A bounded pool for handling ping requests: at most maxThreads at a time, at most queueSize waiting, and
+ * a {@link RejectionPolicy} for the rest. That keeps a request storm from creating a thread per request.
+ * Threads are named after the server and, optionally, virtual (JDK 21+), which still honours the bounds.
+ * <p>
+ * Servers size it from the server settings of the protocol they were started for, see
+ * {@link AbstractServer#createExecutor(org.jgroups.JChannel, String, int, int)}.
+ */
+public class ServerExecutor extends ThreadPoolExecutor {
+    private static final Logger log = Logger.getLogger(ServerExecutor.class.getName());
+
+    public static final int DEFAULT_MAX_THREADS = 10;
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    public enum RejectionPolicy {
+        /** Run the request on the accepting thread, which stops accepting more meanwhile. */
+        CALLER_RUNS(new CallerRunsPolicy()),
+        /** Drop the request; its client is left to time out. */
+        DISCARD(new DiscardPolicy()),
+        /** Throw a RejectedExecutionException to the accepting thread, for servers that answer it themselves. */
+        ABORT(new AbortPolicy());
+
+        private final RejectedExecutionHandler handler;
+
+        private RejectionPolicy(RejectedExecutionHandler handler) {
+            this.handler = handler;
+        }
+    }
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ServerExecutor(String name, int maxThreads, int queueSize, RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+        super(Math.max(1, maxThreads), Math.max(1, maxThreads), 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), createThreadFactory(name, virtualThreads));
+        allowCoreThreadTimeOut(true);
+        final RejectedExecutionHandler handler = rejectionPolicy.handler;
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                rejected.incrementAndGet();
+                handler.rejectedExecution(r, executor);
+            }
+        });
+    }
+
+    private static ThreadFactory createThreadFactory(final String name, boolean virtualThreads) {
+        if (virtualThreads) {
+            ThreadFactory factory = VirtualThreads.newThreadFactory(name + "-");
+            if (factory != null) {
+                return factory;
+            }
+            if (log.isLoggable(Level.INFO)) {
+                log.info(String.format("Virtual threads are not available; %s uses platform threads", name));
+            }
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return the number of requests waiting for a thread
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the number of requests turned down by the {@link RejectionPolicy}
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[maxThreads=%s, active=%s, queueDepth=%s, completed=%s, rejected=%s]",
+                getClass().getSimpleName(), getMaximumPoolSize(), getActiveCount(), getQueueDepth(), getCompletedTaskCount(), getRejectedCount());
+    }
+}
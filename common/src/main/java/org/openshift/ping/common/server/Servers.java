@@ -11,6 +11,7 @@ public final class Servers {
     private static final List<ServerFactory> factories;
     static {
         factories = new ArrayList<ServerFactory>();
+        factories.add(new NioServerFactory());
         factories.add(new UndertowServerFactory());
         factories.add(new JBossServerFactory());
         factories.add(new JDKServerFactory());
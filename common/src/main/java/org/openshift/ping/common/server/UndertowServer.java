@@ -17,18 +17,22 @@
 package org.openshift.ping.common.server;
 
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
 
 import org.jgroups.JChannel;
 
 import io.undertow.Undertow;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class UndertowServer extends AbstractServer {
     private Undertow server;
+    private ServerExecutor executor;
 
     public UndertowServer(int port) {
         super(port);
@@ -40,12 +44,18 @@ public class UndertowServer extends AbstractServer {
             try {
                 Undertow.Builder builder = Undertow.builder();
                 builder.addHttpListener(port, "0.0.0.0");
-                builder.setHandler(new Handler(this));
+                if (isVirtualThreadsEnabled(channel)) {
+                    // blocking handlers on virtual threads, rather than on the XNIO worker pool
+                    executor = createExecutor(channel, "UndertowServer-" + port, ServerExecutor.DEFAULT_MAX_THREADS,
+                            ServerExecutor.DEFAULT_QUEUE_SIZE, ServerExecutor.RejectionPolicy.ABORT);
+                }
+                builder.setHandler(new Handler(this, executor));
                 server = builder.build();
                 server.start();
                 started = true;
             } catch (Exception e) {
                 server = null;
+                shutdownExecutor();
                 throw e;
             }
         }
@@ -62,29 +72,60 @@ public class UndertowServer extends AbstractServer {
                 stopped = true;
             } finally {
                 server = null;
+                shutdownExecutor();
             }
         }
         return stopped;
     }
 
+    /**
+     * @return the pool handling this server's requests, or null while it is not running or they run on the
+     *         XNIO worker pool
+     */
+    @Override
+    public synchronized ServerExecutor getExecutor() {
+        return executor;
+    }
+
+    private void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
     private class Handler implements HttpHandler {
         private final Server server;
+        private final Executor executor;
 
-        private Handler(Server server) {
+        private Handler(Server server, Executor executor) {
             this.server = server;
+            this.executor = executor;
         }
 
         public void handleRequest(HttpServerExchange exchange) throws Exception {
             if(exchange.isInIoThread()) {
-                exchange.dispatch(this);
+                if (executor != null) {
+                    exchange.dispatch(executor, this);
+                } else {
+                    exchange.dispatch(this);
+                }
                 return;
             }
 
             exchange.startBlocking();
             String clusterName = exchange.getRequestHeaders().getFirst(CLUSTER_NAME);
             JChannel channel = server.getChannel(clusterName);
+            byte[] responses;
             try (InputStream stream = exchange.getInputStream()) {
-                handlePingRequest(channel, stream);
+                responses = handlePingRequest(channel, stream, exchange.getRequestHeaders().getFirst(Headers.ACCEPT));
+            }
+            if (responses != null) {
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, PingResponses.CONTENT_TYPE);
+                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, responses.length);
+                try (OutputStream out = exchange.getOutputStream()) {
+                    out.write(responses);
+                }
             }
         }
     }
@@ -1,6 +1,8 @@
 package org.openshift.ping.common.stream;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
@@ -8,6 +10,8 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.net.ssl.SSLContext;
+
 public abstract class BaseStreamProvider implements StreamProvider {
     private static final Logger log = Logger.getLogger(BaseStreamProvider.class.getName());
 
@@ -30,4 +34,56 @@ public abstract class BaseStreamProvider implements StreamProvider {
         return connection;
     }
 
+    /**
+     * Opens the response stream. On an error response the error body is consumed and closed, which lets the
+     * JDK hand the underlying (keep-alive) connection back to its cache instead of discarding it, and the
+     * failure is reported as an {@link HttpResponseException} with the response code.
+     */
+    protected InputStream getInputStream(URLConnection connection) throws IOException {
+        try {
+            return connection.getInputStream();
+        } catch (IOException ioe) {
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                InputStream errorStream = httpConnection.getErrorStream();
+                if (errorStream != null) {
+                    try {
+                        byte[] buffer = new byte[1024];
+                        while (errorStream.read(buffer) != -1) {
+                            // discard
+                        }
+                    } catch (IOException ignored) {
+                        // the connection just won't be reused
+                    } finally {
+                        errorStream.close();
+                    }
+                }
+                int responseCode = -1;
+                try {
+                    responseCode = httpConnection.getResponseCode();
+                } catch (IOException ignored) {
+                    // no response at all, e.g. the connect failed; the remembered failure is rethrown, not retried
+                }
+                if (responseCode >= 400) {
+                    throw new HttpResponseException(responseCode, ioe.getMessage(), ioe);
+                }
+            }
+            throw ioe;
+        }
+    }
+
+    /**
+     * The TLS context this provider connects with, or null for the JVM default.
+     */
+    SSLContext getSSLContext() throws IOException {
+        return null;
+    }
+
+    /**
+     * The Authorization header value this provider sends, or null for none.
+     */
+    String getAuthorization() {
+        return null;
+    }
+
 }
@@ -0,0 +1,166 @@
+/**
+ *  Copyright 2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link StreamProvider} shared by all users of the same master (and credentials) in the JVM, which limits how
+ * many streams from it are open at once. It is a semaphore around the delegate, not a connection pool: it never
+ * holds on to a connection itself.
+ * <p>
+ * Whatever handshakes are saved come from the JDK. Sharing one delegate means sharing its SSLSocketFactory, so TLS
+ * sessions are resumed rather than renegotiated, and the JDK's HTTP keep-alive cache (keyed on host, port and
+ * SSLSocketFactory) hands an idle connection to the next caller. A connection only goes back to that cache, and
+ * its permit back to this provider, once the stream handed out is read to the end and closed.
+ * <p>
+ * The limit is the largest maxConnections any of its users asked for, and the provider is dropped once the last
+ * of them {@link #release() releases} it.
+ */
+public class BoundedStreamProvider implements StreamProvider {
+    private static final Logger log = Logger.getLogger(BoundedStreamProvider.class.getName());
+
+    private static final Map<String, BoundedStreamProvider> PROVIDERS = new HashMap<String, BoundedStreamProvider>();
+
+    private final String key;
+    private final StreamProvider delegate;
+    private final Semaphore permits;
+    private volatile int maxConnections;
+    // guarded by PROVIDERS
+    private int references;
+
+    BoundedStreamProvider(StreamProvider delegate, int maxConnections) {
+        this(null, delegate, maxConnections);
+    }
+
+    private BoundedStreamProvider(String key, StreamProvider delegate, int maxConnections) {
+        checkMaxConnections(maxConnections);
+        this.key = key;
+        this.delegate = delegate;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    private static void checkMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException(String.format("maxConnections [%s] must be at least 1.", maxConnections));
+        }
+    }
+
+    /**
+     * Returns the provider registered under the key, registering one around the given delegate if there is none yet.
+     * Every call must be matched by a call to {@link #release()} once the provider is no longer used.
+     *
+     * @param key identifies the master and credentials the delegate connects with
+     * @param delegate the provider to bound, only used if no provider is registered under the key yet
+     * @param maxConnections the maximum number of concurrently open streams; an existing provider grows to it
+     * @return the shared provider
+     */
+    public static BoundedStreamProvider getStreamProvider(String key, StreamProvider delegate, int maxConnections) {
+        checkMaxConnections(maxConnections);
+        synchronized (PROVIDERS) {
+            BoundedStreamProvider provider = PROVIDERS.get(key);
+            if (provider == null) {
+                provider = new BoundedStreamProvider(key, delegate, maxConnections);
+                PROVIDERS.put(key, provider);
+            } else if (maxConnections > provider.maxConnections) {
+                provider.permits.release(maxConnections - provider.maxConnections);
+                provider.maxConnections = maxConnections;
+            }
+            provider.references++;
+            return provider;
+        }
+    }
+
+    /**
+     * Gives up one use of the shared provider; the last one to do so removes it from the JVM.
+     */
+    public void release() {
+        synchronized (PROVIDERS) {
+            if (references > 0 && --references == 0 && PROVIDERS.get(key) == this) {
+                PROVIDERS.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        acquire(connectTimeout);
+        boolean opened = false;
+        try {
+            InputStream stream = delegate.openStream(url, headers, connectTimeout, readTimeout);
+            opened = true;
+            return new BoundedInputStream(stream);
+        } finally {
+            if (!opened) {
+                permits.release();
+            }
+        }
+    }
+
+    private void acquire(int connectTimeout) throws IOException {
+        try {
+            if (connectTimeout > 0) {
+                if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new IOException(String.format("Timed out after %sms waiting for one of %s connection permits.", connectTimeout, maxConnections));
+                }
+            } else {
+                // as with URLConnection, a timeout of zero means wait forever
+                permits.acquire();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection permit.", ie);
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(String.format("Acquired connection permit; %s of %s available.", permits.availablePermits(), maxConnections));
+        }
+    }
+
+    public String toString() {
+        return String.format("%s[delegate=%s, maxConnections=%s]", getClass().getSimpleName(), delegate, maxConnections);
+    }
+
+    private class BoundedInputStream extends FilterInputStream {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private BoundedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    super.close();
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+}
@@ -51,6 +51,7 @@ import net.oauth.signature.pem.PKCS1EncodedKeySpec;
 public class CertificateStreamProvider extends BaseStreamProvider {
     private static final Logger log = Logger.getLogger(CertificateStreamProvider.class.getName());
 
+    private final SSLContext context;
     private final SSLSocketFactory factory;
 
     public CertificateStreamProvider(String clientCertFile, String clientKeyFile, String clientKeyPassword, String clientKeyAlgo, String caCertFile) throws Exception {
@@ -60,11 +61,16 @@ public class CertificateStreamProvider extends BaseStreamProvider {
 
         KeyManager[] keyManagers = configureClientCert(clientCertFile, clientKeyFile, password, algorithm);
         TrustManager[] trustManagers = configureCaCert(caCertFile);
-        SSLContext context = SSLContext.getInstance("TLS");
+        context = SSLContext.getInstance("TLS");
         context.init(keyManagers, trustManagers, null);
         factory = context.getSocketFactory();
     }
 
+    @Override
+    SSLContext getSSLContext() {
+        return context;
+    }
+
     public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
         URLConnection connection = openConnection(url, headers, connectTimeout, readTimeout);
         if (connection instanceof HttpsURLConnection) {
@@ -79,7 +85,7 @@ public class CertificateStreamProvider extends BaseStreamProvider {
                 log.fine(String.format("Using URLConnection for url [%s].", url));
             }
         }
-        return connection.getInputStream();
+        return getInputStream(connection);
     }
 
     private KeyManager[] configureClientCert(String clientCertFile, String clientKeyFile, char[] clientKeyPassword, String clientKeyAlgo) throws Exception {
@@ -0,0 +1,366 @@
+/**
+ *  Copyright 2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.streams.ChannelInputStream;
+
+import io.undertow.UndertowOptions;
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+
+/**
+ * A {@link StreamProvider} which multiplexes all requests to a master over a single HTTP/2 connection, using the
+ * Undertow client.
+ * <p>
+ * TLS settings and the Authorization header are taken from the {@link BaseStreamProvider} it is created with, so the
+ * token and client certificate configurations both work unchanged. Per stream flow control is handled by the
+ * HTTP/2 connection as response bodies are read; Undertow's client does not expose stream priorities, so all
+ * streams share the connection equally. If HTTP/2 is not negotiated (or the url is not https) requests go to the
+ * fallback provider instead.
+ * <p>
+ * Each provider has its own IO thread, which is shut down with its connections once the last user
+ * {@link #release() releases} it.
+ */
+public class Http2StreamProvider implements StreamProvider {
+    private static final Logger log = Logger.getLogger(Http2StreamProvider.class.getName());
+
+    private static final Map<String, Http2StreamProvider> PROVIDERS = new HashMap<String, Http2StreamProvider>();
+
+    private final String key;
+    private final BaseStreamProvider credentials;
+    private final StreamProvider fallback;
+    private final Map<String, ClientConnection> connections = new HashMap<String, ClientConnection>();
+    private volatile boolean unsupported;
+    // guarded by connections
+    private XnioWorker worker;
+    private ByteBufferPool bufferPool;
+    private UndertowXnioSsl ssl;
+    private boolean closed;
+    // guarded by PROVIDERS
+    private int references;
+
+    Http2StreamProvider(BaseStreamProvider credentials, StreamProvider fallback) {
+        this(null, credentials, fallback);
+    }
+
+    private Http2StreamProvider(String key, BaseStreamProvider credentials, StreamProvider fallback) {
+        this.key = key;
+        this.credentials = credentials;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Returns the provider registered under the key, registering a new one if there is none yet. Every call must be
+     * matched by a call to {@link #release()} once the provider is no longer used.
+     *
+     * @param key identifies the master and credentials
+     * @param credentials supplies the TLS context and Authorization header, only used for a new provider
+     * @param fallback used whenever HTTP/2 is not available, only used for a new provider
+     * @return the shared provider
+     */
+    public static Http2StreamProvider getStreamProvider(String key, BaseStreamProvider credentials, StreamProvider fallback) {
+        synchronized (PROVIDERS) {
+            Http2StreamProvider provider = PROVIDERS.get(key);
+            if (provider == null) {
+                provider = new Http2StreamProvider(key, credentials, fallback);
+                PROVIDERS.put(key, provider);
+            }
+            provider.references++;
+            return provider;
+        }
+    }
+
+    /**
+     * Gives up one use of the shared provider; the last one to do so removes it from the JVM and closes it.
+     */
+    public void release() {
+        synchronized (PROVIDERS) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+            if (PROVIDERS.get(key) == this) {
+                PROVIDERS.remove(key);
+            }
+        }
+        close();
+    }
+
+    /**
+     * Closes the HTTP/2 connections and shuts down the IO thread. The fallback provider is left alone.
+     */
+    void close() {
+        synchronized (connections) {
+            closed = true;
+            for (ClientConnection connection : connections.values()) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                    // closing anyway
+                }
+            }
+            connections.clear();
+            ssl = null;
+            if (bufferPool != null) {
+                bufferPool.close();
+                bufferPool = null;
+            }
+            if (worker != null) {
+                worker.shutdown();
+                worker = null;
+            }
+        }
+    }
+
+    @Override
+    public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        URI uri = toURI(url);
+        ClientConnection connection = unsupported ? null : getConnection(uri, connectTimeout);
+        if (connection == null) {
+            return fallback.openStream(url, headers, connectTimeout, readTimeout);
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.log(Level.FINE, String.format("%s opening stream: url [%s], headers [%s], readTimeout [%s]", getClass().getSimpleName(), url, headers, readTimeout));
+        }
+
+        ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(uri.getRawQuery() != null ? uri.getRawPath() + "?" + uri.getRawQuery() : uri.getRawPath());
+        request.getRequestHeaders().put(Headers.HOST, uri.getHost() + ":" + getPort(uri));
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                request.getRequestHeaders().put(new HttpString(entry.getKey()), entry.getValue());
+            }
+        }
+        String authorization = credentials.getAuthorization();
+        if (authorization != null) {
+            request.getRequestHeaders().put(Headers.AUTHORIZATION, authorization);
+        }
+
+        final FutureResult<ClientExchange> response = new FutureResult<ClientExchange>();
+        connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+            public void completed(ClientExchange exchange) {
+                exchange.setResponseListener(new ClientCallback<ClientExchange>() {
+                    public void completed(ClientExchange exchange) {
+                        response.setResult(exchange);
+                    }
+
+                    public void failed(IOException e) {
+                        response.setException(e);
+                    }
+                });
+            }
+
+            public void failed(IOException e) {
+                response.setException(e);
+            }
+        });
+
+        IoFuture<ClientExchange> future = response.getIoFuture();
+        if (readTimeout > 0 && future.await(readTimeout, TimeUnit.MILLISECONDS) == IoFuture.Status.WAITING) {
+            future.cancel();
+            throw new IOException(String.format("Timed out after %sms waiting for a response from url [%s].", readTimeout, url));
+        }
+        ClientExchange exchange = future.get();
+        InputStream stream = new ChannelInputStream(exchange.getResponseChannel(), readTimeout, TimeUnit.MILLISECONDS);
+        int responseCode = exchange.getResponse().getResponseCode();
+        if (responseCode >= 400) {
+            // consume the body so the stream is finished cleanly, same message as HttpURLConnection
+            try {
+                byte[] buffer = new byte[1024];
+                while (stream.read(buffer) != -1) {
+                    // discard
+                }
+            } finally {
+                stream.close();
+            }
+            throw new HttpResponseException(responseCode, String.format("Server returned HTTP response code: %s for URL: %s", responseCode, url));
+        }
+        return stream;
+    }
+
+    private ClientConnection getConnection(URI uri, int connectTimeout) throws IOException {
+        if (!"https".equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+        String endpoint = uri.getHost() + ":" + getPort(uri);
+        synchronized (connections) {
+            if (closed) {
+                throw new IOException(String.format("%s is closed.", getClass().getSimpleName()));
+            }
+            ClientConnection connection = connections.get(endpoint);
+            if (connection != null && connection.isOpen()) {
+                return connection;
+            }
+            connections.remove(endpoint);
+
+            IoFuture<ClientConnection> future = UndertowClient.getInstance().connect(
+                uri, getWorker(), getSsl(), getBufferPool(), OptionMap.create(UndertowOptions.ENABLE_HTTP2, true));
+            if (connectTimeout > 0 && future.await(connectTimeout, TimeUnit.MILLISECONDS) == IoFuture.Status.WAITING) {
+                future.cancel();
+                throw new IOException(String.format("Timed out after %sms connecting to [%s].", connectTimeout, endpoint));
+            }
+            connection = future.get();
+            if (!connection.isMultiplexingSupported()) {
+                // HTTP/2 was not negotiated, don't try again
+                connection.close();
+                unsupported = true;
+                if (log.isLoggable(Level.INFO)) {
+                    log.info(String.format("HTTP/2 not negotiated with [%s]; using %s.", endpoint, fallback));
+                }
+                return null;
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(String.format("Opened HTTP/2 connection to [%s].", endpoint));
+            }
+            connections.put(endpoint, connection);
+            return connection;
+        }
+    }
+
+    private UndertowXnioSsl getSsl() throws IOException {
+        // only called holding the connections lock
+        if (ssl == null) {
+            SSLContext context = credentials.getSSLContext();
+            if (context == null) {
+                try {
+                    context = SSLContext.getDefault();
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            if (!(credentials instanceof InsecureStreamProvider)) {
+                // SSLEngines don't check the host name on their own, unlike HttpsURLConnection
+                context = new EndpointIdentificationSSLContext(context);
+            }
+            ssl = new UndertowXnioSsl(getWorker().getXnio(), OptionMap.EMPTY, context);
+        }
+        return ssl;
+    }
+
+    private XnioWorker getWorker() throws IOException {
+        // only called holding the connections lock
+        if (worker == null) {
+            Xnio xnio = Xnio.getInstance(Http2StreamProvider.class.getClassLoader());
+            worker = xnio.createWorker(OptionMap.builder()
+                .set(Options.WORKER_IO_THREADS, 1)
+                .set(Options.WORKER_TASK_CORE_THREADS, 1)
+                .set(Options.WORKER_TASK_MAX_THREADS, 1)
+                .set(Options.WORKER_NAME, "Http2StreamProvider")
+                .set(Options.THREAD_DAEMON, true)
+                .getMap());
+        }
+        return worker;
+    }
+
+    private ByteBufferPool getBufferPool() {
+        // only called holding the connections lock
+        if (bufferPool == null) {
+            bufferPool = new DefaultByteBufferPool(true, 16 * 1024);
+        }
+        return bufferPool;
+    }
+
+    private static URI toURI(String url) throws IOException {
+        try {
+            return new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static int getPort(URI uri) {
+        return uri.getPort() != -1 ? uri.getPort() : 443;
+    }
+
+    public String toString() {
+        return String.format("%s[credentials=%s, fallback=%s]", getClass().getSimpleName(), credentials, fallback);
+    }
+
+    private static class EndpointIdentificationSSLContext extends SSLContext {
+        private EndpointIdentificationSSLContext(final SSLContext delegate) {
+            super(new SSLContextSpi() {
+                protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+                    delegate.init(km, tm, sr);
+                }
+
+                protected SSLSocketFactory engineGetSocketFactory() {
+                    return delegate.getSocketFactory();
+                }
+
+                protected SSLServerSocketFactory engineGetServerSocketFactory() {
+                    return delegate.getServerSocketFactory();
+                }
+
+                protected SSLEngine engineCreateSSLEngine() {
+                    return delegate.createSSLEngine();
+                }
+
+                protected SSLEngine engineCreateSSLEngine(String host, int port) {
+                    SSLEngine engine = delegate.createSSLEngine(host, port);
+                    SSLParameters parameters = engine.getSSLParameters();
+                    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    engine.setSSLParameters(parameters);
+                    return engine;
+                }
+
+                protected SSLSessionContext engineGetServerSessionContext() {
+                    return delegate.getServerSessionContext();
+                }
+
+                protected SSLSessionContext engineGetClientSessionContext() {
+                    return delegate.getClientSessionContext();
+                }
+            }, delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+}
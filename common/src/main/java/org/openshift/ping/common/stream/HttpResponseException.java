@@ -0,0 +1,42 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.openshift.ping.common.stream;
+
+import java.io.IOException;
+
+/**
+ * An error response from the server, carrying its HTTP status so callers can tell
+ * e.g. an overloaded master (worth retrying) from a forbidden request (not worth it).
+ */
+public class HttpResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+
+    public HttpResponseException(int responseCode, String message) {
+        super(message);
+        this.responseCode = responseCode;
+    }
+
+    public HttpResponseException(int responseCode, String message, Throwable cause) {
+        super(message, cause);
+        this.responseCode = responseCode;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+}
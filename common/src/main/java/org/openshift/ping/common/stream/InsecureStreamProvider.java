@@ -40,14 +40,20 @@ public class InsecureStreamProvider extends BaseStreamProvider {
         }
     };
 
+    private final SSLContext context;
     private final SSLSocketFactory factory;
 
     public InsecureStreamProvider() throws Exception {
-        SSLContext context = SSLContext.getInstance("TLS");
+        context = SSLContext.getInstance("TLS");
         context.init(null,  INSECURE_TRUST_MANAGERS, null);
         factory = context.getSocketFactory();
     }
 
+    @Override
+    SSLContext getSSLContext() {
+        return context;
+    }
+
     @Override
     public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
         URLConnection connection = openConnection(url, headers, connectTimeout, readTimeout);
@@ -63,7 +69,7 @@ public class InsecureStreamProvider extends BaseStreamProvider {
                 log.fine(String.format("Using URLConnection for url [%s].", url));
             }
         }
-        return connection.getInputStream();
+        return getInputStream(connection);
     }
 
 }
@@ -4,6 +4,12 @@ import java.io.InputStream;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
+import org.openshift.ping.common.RetryPolicy;
+
+/**
+ * One attempt at opening a stream. If the retry policy has a deadline, no attempt waits past it: the connect and
+ * read timeouts are cut down to the time that is left when the attempt starts.
+ */
 public class OpenStream implements Callable<InputStream> {
 
     private final StreamProvider streamProvider;
@@ -11,18 +17,33 @@ public class OpenStream implements Callable<InputStream> {
     private final Map<String, String> headers;
     private final int connectTimeout;
     private final int readTimeout;
+    private final RetryPolicy policy;
+    private final long deadline;
 
-    public OpenStream(StreamProvider streamProvider, String url, Map<String, String> headers, int connectTimeout, int readTimeout) {
+    public OpenStream(StreamProvider streamProvider, String url, Map<String, String> headers, int connectTimeout, int readTimeout, RetryPolicy policy) {
         this.streamProvider = (streamProvider != null) ? streamProvider : new DefaultStreamProvider();
         this.url = url;
         this.headers = headers;
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
+        this.policy = policy;
+        this.deadline = policy.getDeadline() > 0 ? policy.currentTimeMillis() + policy.getDeadline() : 0;
     }
 
     @Override
     public InputStream call() throws Exception {
-        return streamProvider.openStream(url, headers, connectTimeout, readTimeout);
+        if (deadline == 0) {
+            return streamProvider.openStream(url, headers, connectTimeout, readTimeout);
+        }
+        int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline - policy.currentTimeMillis()));
+        return streamProvider.openStream(url, headers, clamp(connectTimeout, remaining), clamp(readTimeout, remaining));
+    }
+
+    /**
+     * @param timeout the configured timeout, 0 meaning none
+     */
+    private static int clamp(int timeout, int remaining) {
+        return timeout > 0 && timeout < remaining ? timeout : remaining;
     }
 
 }
@@ -1,7 +1,9 @@
 package org.openshift.ping.common.stream;
 
 import static org.openshift.ping.common.Utils.openFile;
+import static org.openshift.ping.common.Utils.readFileToString;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 
 import java.io.IOException;
@@ -29,10 +31,14 @@ public class TokenStreamProvider extends BaseStreamProvider {
 
     private static final Logger log = Logger.getLogger(TokenStreamProvider.class.getName());
 
-    private String token;
+    private volatile String token;
+
+    private File tokenFile;
 
     private String caCertFile;
 
+    private volatile SSLContext context;
+
     private SSLSocketFactory factory;
 
     public TokenStreamProvider(String token, String caCertFile) {
@@ -40,6 +46,15 @@ public class TokenStreamProvider extends BaseStreamProvider {
         this.caCertFile = caCertFile;
     }
 
+    /**
+     * Reads the token from the file for every request, so a rotated service account token is picked up without
+     * creating a new provider.
+     */
+    public TokenStreamProvider(File tokenFile, String caCertFile) throws IOException {
+        this(readFileToString(tokenFile), caCertFile);
+        this.tokenFile = tokenFile;
+    }
+
     @Override
     public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout)
             throws IOException {
@@ -58,12 +73,13 @@ public class TokenStreamProvider extends BaseStreamProvider {
             }
         }
 
-        if (token != null) {
+        String authorization = getAuthorization();
+        if (authorization != null) {
             // curl -k -H "Authorization: Bearer $(cat /var/run/secrets/kubernetes.io/serviceaccount/token)" \
             // https://172.30.0.2:443/api/v1/namespaces/dward/pods?labelSelector=application%3Deap-app
-            headers.put("Authorization", "Bearer " + token);
+            connection.setRequestProperty("Authorization", authorization);
         }
-        return connection.getInputStream();
+        return getInputStream(connection);
     }
 
     static TrustManager[] configureCaCert(String caCertFile) throws Exception {
@@ -103,21 +119,49 @@ public class TokenStreamProvider extends BaseStreamProvider {
         }
     }
 
-    private SSLSocketFactory getSSLSocketFactory() throws IOException {
-        if(this.factory == null) {
+    @Override
+    String getAuthorization() {
+        String token = getToken();
+        return (token != null) ? "Bearer " + token : null;
+    }
+
+    private String getToken() {
+        if (tokenFile != null) {
+            try {
+                String current = readFileToString(tokenFile);
+                if (current != null) {
+                    token = current;
+                }
+            } catch (IOException e) {
+                // keep using the last token read
+                log.log(Level.WARNING, "Could not read token file " + tokenFile, e);
+            }
+        }
+        return token;
+    }
+
+    @Override
+    SSLContext getSSLContext() throws IOException {
+        if(this.context == null) {
             synchronized(this) {
-                if(this.factory == null) {
+                if(this.context == null) {
                     try {
                         TrustManager[] trustManagers = configureCaCert(this.caCertFile);
                         SSLContext context = SSLContext.getInstance("TLS");
                         context.init(null, trustManagers, null);
                         this.factory = context.getSocketFactory();
+                        this.context = context;
                     } catch(Exception e) {
                         throw new IOException(e);
                     }
                 }
             }
         }
+        return this.context;
+    }
+
+    private SSLSocketFactory getSSLSocketFactory() throws IOException {
+        getSSLContext();
         return this.factory;
     }
 
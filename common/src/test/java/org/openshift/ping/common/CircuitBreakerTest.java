@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openshift.ping.common.CircuitBreaker.State;
+
+/**
+ * Verify the {@link CircuitBreaker} state transitions.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getOpens());
+
+        breaker.reset();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(100);
+        assertFalse(breaker.isOpen());
+        // one probe only
+        assertTrue(breaker.allowRequest());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        // a failed probe opens it again, without counting as another opening
+        breaker.recordFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getOpens());
+
+        Thread.sleep(100);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testDisabled() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0, 60000);
+        for (int i = 0; i < 10; i++) {
+            breaker.recordFailure();
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Verify {@link DiscoveryMetrics} percentiles and the numbers recorded through {@link Utils}.
+ */
+public class DiscoveryMetricsTest {
+
+    @Test
+    public void testLookupLatency() {
+        DiscoveryMetrics metrics = new DiscoveryMetrics();
+        assertEquals(0, metrics.getLookupLatency(50), 0);
+        for (int i = 1; i <= 100; i++) {
+            metrics.recordLookup(TimeUnit.MILLISECONDS.toNanos(i), i % 10 != 0);
+        }
+        assertEquals(50, metrics.getLookupLatency(50), 0);
+        assertEquals(99, metrics.getLookupLatency(99), 0);
+        assertEquals(100, metrics.getLookups());
+        assertEquals(10, metrics.getFailedLookups());
+    }
+
+    @Test
+    public void testRetriesAndBytes() throws Exception {
+        DiscoveryMetrics metrics = new DiscoveryMetrics();
+        final AtomicInteger calls = new AtomicInteger();
+        String value = Utils.execute(new Callable<String>() {
+            public String call() throws Exception {
+                return calls.incrementAndGet() < 3 ? null : "done";
+            }
+        }, RetryPolicy.fixed(5, 0), false, metrics);
+        assertEquals("done", value);
+        assertEquals(2, metrics.getRetries());
+
+        // no retry after the last attempt
+        assertNull(Utils.execute(new Callable<String>() {
+            public String call() throws Exception {
+                return null;
+            }
+        }, RetryPolicy.fixed(2, 0), false, metrics));
+        assertEquals(3, metrics.getRetries());
+
+        InputStream stream = metrics.countBytes(new ByteArrayInputStream(new byte[100]));
+        stream.read();
+        stream.read(new byte[50]);
+        stream.skip(10);
+        assertEquals(61, metrics.getBytesRead());
+    }
+}
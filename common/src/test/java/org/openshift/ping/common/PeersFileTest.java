@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verify {@link PeersFile} round trips hosts and tolerates a missing or damaged file.
+ */
+public class PeersFileTest {
+
+    @Test
+    public void testWriteRead() throws Exception {
+        File dir = Files.createTempDirectory("peers").toFile();
+        try {
+            PeersFile peersFile = new PeersFile(new File(dir, "peers").getPath());
+            assertTrue(peersFile.read().isEmpty());
+
+            List<InetSocketAddress> peers = Arrays.asList(new InetSocketAddress("10.1.0.1", 8888), new InetSocketAddress("::1", 7800));
+            peersFile.write(peers);
+            assertEquals(peers, peersFile.read());
+
+            peersFile.write(peers.subList(0, 1));
+            assertEquals(peers.subList(0, 1), peersFile.read());
+            // only the peers file is left behind, no temp files
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSkipsBadLines() throws Exception {
+        File file = File.createTempFile("peers", null);
+        try {
+            Files.write(file.toPath(), "# comment\n10.1.0.1:8888\nno-port\n10.1.0.2:x\n\n10.1.0.3:8888\n".getBytes("UTF-8"));
+            List<InetSocketAddress> peers = new PeersFile(file.getPath()).read();
+            assertEquals(Arrays.asList(new InetSocketAddress("10.1.0.1", 8888), new InetSocketAddress("10.1.0.3", 8888)), peers);
+        } finally {
+            file.delete();
+        }
+    }
+}
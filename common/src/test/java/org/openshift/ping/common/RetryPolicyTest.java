@@ -0,0 +1,175 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openshift.ping.common.stream.HttpResponseException;
+import org.openshift.ping.common.stream.StreamProvider;
+
+/**
+ * Verify the {@link RetryPolicy} sleeps and classification, and how {@link Utils} applies them.
+ */
+public class RetryPolicyTest {
+
+    /**
+     * Records the sleeps instead of taking them, and moves its clock on by each one.
+     */
+    private static class RecordingRetryPolicy extends RetryPolicy {
+        private final List<Long> sleeps = new ArrayList<Long>();
+        private long now;
+
+        private RecordingRetryPolicy(int attempts, long sleep, long maxSleep, long deadline) {
+            super(attempts, sleep, maxSleep, deadline);
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            sleeps.add(millis);
+            now += millis;
+        }
+    }
+
+    private static Callable<String> failing(final AtomicInteger calls, final Exception failure) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                throw failure;
+            }
+        };
+    }
+
+    @Test
+    public void testSleeps() {
+        RetryPolicy fixed = RetryPolicy.fixed(3, 100);
+        assertEquals(100, fixed.nextSleep(0));
+        assertEquals(100, fixed.nextSleep(100));
+
+        RetryPolicy jittered = new RetryPolicy(10, 100, 1000, 0);
+        long previous = 0;
+        for (int i = 0; i < 1000; i++) {
+            long sleep = jittered.nextSleep(previous);
+            assertTrue(sleep >= 100);
+            assertTrue(sleep <= Math.min(1000, Math.max(100, previous) * 3));
+            previous = sleep;
+        }
+    }
+
+    @Test
+    public void testClassification() {
+        RetryPolicy policy = RetryPolicy.fixed(3, 0);
+        assertTrue(policy.isRetryable(new IOException("Connection refused")));
+        assertTrue(policy.isRetryable(new HttpResponseException(503, "unavailable")));
+        assertTrue(policy.isRetryable(new HttpResponseException(429, "too many requests")));
+        assertFalse(policy.isRetryable(new HttpResponseException(403, "forbidden")));
+        assertFalse(policy.isRetryable(new MalformedURLException()));
+        assertTrue(policy.isRetryable(new HttpResponseException(401, "unauthorized")));
+        assertFalse(policy.isRetryable(new Exception(new HttpResponseException(404, "not found"))));
+    }
+
+    @Test
+    public void testNoSleepAfterLastAttempt() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RecordingRetryPolicy policy = new RecordingRetryPolicy(2, 200, 200, 0);
+        assertNull(Utils.execute(failing(calls, new IOException()), policy, false, null));
+        assertEquals(2, calls.get());
+        assertEquals(Arrays.asList(200L), policy.sleeps);
+    }
+
+    @Test
+    public void testNonRetryableFailsFast() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RecordingRetryPolicy policy = new RecordingRetryPolicy(5, 1000, 1000, 0);
+        try {
+            Utils.execute(failing(calls, new HttpResponseException(403, "forbidden")), policy, true, null);
+            fail("Expected the failure to be rethrown");
+        } catch (Exception expected) {
+            assertTrue(expected.getCause() instanceof HttpResponseException);
+        }
+        assertEquals(1, calls.get());
+        assertTrue(policy.sleeps.isEmpty());
+    }
+
+    @Test
+    public void testEmptyAnswerAfterFailureNotRethrown() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> failsThenFindsNothing = new Callable<String>() {
+            public String call() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IOException("timed out");
+                }
+                return null;
+            }
+        };
+        assertNull(Utils.execute(failsThenFindsNothing, new RecordingRetryPolicy(2, 100, 100, 0), true, null));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DiscoveryMetrics metrics = new DiscoveryMetrics();
+        RecordingRetryPolicy policy = new RecordingRetryPolicy(100, 100, 100, 350);
+        assertNull(Utils.execute(failing(calls, new IOException()), policy, false, metrics));
+        // after three sleeps only 50ms are left, too few for another one
+        assertEquals(Arrays.asList(100L, 100L, 100L), policy.sleeps);
+        assertEquals(4, calls.get());
+        assertEquals(3, metrics.getRetries());
+    }
+
+    @Test
+    public void testDeadlineClampsTimeouts() throws Exception {
+        final List<Integer> timeouts = new ArrayList<Integer>();
+        StreamProvider provider = new StreamProvider() {
+            public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+                timeouts.add(connectTimeout);
+                timeouts.add(readTimeout);
+                throw new IOException("timed out");
+            }
+        };
+        RecordingRetryPolicy policy = new RecordingRetryPolicy(3, 300, 300, 1000);
+        try {
+            Utils.openStream("http://localhost", null, 500, 0, policy, provider, null);
+            fail("Expected the failure to be rethrown");
+        } catch (Exception expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        // the clock only moves with the sleeps: 1000ms left, then 700ms, then 400ms
+        assertEquals(Arrays.asList(500, 1000, 500, 700, 400, 400), timeouts);
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.common.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify {@link NioServer} reads whole requests, whatever their size, and answers them, and that it doesn't leave
+ * connections open. No channel is registered, so the ping requests themselves are just consumed.
+ */
+public class NioServerTest {
+    private NioServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new NioServer(port);
+        assertTrue(server.start(null));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(null);
+    }
+
+    private int post(int size) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port).openConnection(Proxy.NO_PROXY);
+        conn.addRequestProperty(Server.CLUSTER_NAME, "test");
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setFixedLengthStreamingMode(size);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(new byte[size]);
+        }
+        return conn.getResponseCode();
+    }
+
+    private String raw(String request) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            try (InputStream in = socket.getInputStream(); Scanner scanner = new Scanner(in, "ISO-8859-1")) {
+                return scanner.useDelimiter("\\A").next();
+            }
+        }
+    }
+
+    @Test
+    public void testRequests() throws Exception {
+        assertEquals(200, post(0));
+        assertEquals(200, post(100));
+        // spans several pooled buffers
+        assertEquals(200, post(10 * NioServer.BUFFER_SIZE + 17));
+    }
+
+    @Test
+    public void testRejectedRequests() throws Exception {
+        assertTrue(raw("POST / HTTP/1.1\r\nContent-Length: " + (NioServer.MAX_BODY_SIZE + 1) + "\r\n\r\n").startsWith("HTTP/1.1 413 "));
+        assertTrue(raw("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n").startsWith("HTTP/1.1 411 "));
+        StringBuilder header = new StringBuilder("POST / HTTP/1.1\r\n");
+        while (header.length() <= NioServer.BUFFER_SIZE) {
+            header.append("X-Padding: 0123456789\r\n");
+        }
+        assertTrue(raw(header.append("\r\n").toString()).startsWith("HTTP/1.1 431 "));
+        // still serving
+        assertEquals(200, post(10));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final int size = i * 331;
+                results.add(clients.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return post(size);
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(200), result.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStopClosesConnections() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            // a request the server waits on the rest of
+            socket.getOutputStream().write("POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            assertTrue(server.stop(null));
+            assertClosed(socket);
+        }
+        // the port is free again
+        assertTrue(server.start(null));
+        assertEquals(200, post(10));
+    }
+
+    @Test
+    public void testIdleConnectionsClosed() throws Exception {
+        int idlePort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            idlePort = socket.getLocalPort();
+        }
+        NioServer idleServer = new NioServer(idlePort, 1, 200);
+        assertTrue(idleServer.start(null));
+        try (Socket socket = new Socket("localhost", idlePort)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("POST / HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            assertClosed(socket);
+        } finally {
+            idleServer.stop(null);
+        }
+    }
+
+    private static void assertClosed(Socket socket) throws Exception {
+        try {
+            // a connection left open would time out here instead
+            assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException reset) {
+            // closed before it was accepted
+        }
+    }
+}
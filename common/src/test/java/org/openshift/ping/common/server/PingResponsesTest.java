@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.util.UUID;
+import org.junit.Test;
+
+/**
+ * Verify {@link PingResponses} reads back what it writes.
+ */
+public class PingResponsesTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Address member = UUID.randomUUID();
+        Address sender = UUID.randomUUID();
+        Message first = new Message(sender, "first".getBytes(StandardCharsets.UTF_8));
+        first.setSrc(member);
+        Message second = new Message(sender, "second".getBytes(StandardCharsets.UTF_8));
+        second.setSrc(member);
+
+        List<Message> decoded = PingResponses.decode(new ByteArrayInputStream(PingResponses.encode(Arrays.asList(first, second))));
+
+        assertEquals(2, decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            Message expected = i == 0 ? first : second;
+            Message actual = decoded.get(i);
+            assertEquals(sender, actual.getDest());
+            assertEquals(member, actual.getSrc());
+            assertArrayEquals(expected.getBuffer(), actual.getBuffer());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] encoded = PingResponses.encode(Collections.<Message>emptyList());
+        assertTrue(PingResponses.decode(new ByteArrayInputStream(encoded)).isEmpty());
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.common.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.openshift.ping.common.server.ServerExecutor.RejectionPolicy;
+
+/**
+ * Verify {@link ServerExecutor} stays within its bounds and counts what it turns down.
+ */
+public class ServerExecutorTest {
+
+    private static Runnable blockOn(final CountDownLatch release) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        ServerExecutor executor = new ServerExecutor("test", 2, 3, RejectionPolicy.ABORT, false);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 5; i++) {
+                executor.execute(blockOn(release));
+            }
+            try {
+                executor.execute(blockOn(release));
+                fail("Expected the request to be rejected");
+            } catch (RejectedExecutionException expected) {
+            }
+            assertEquals(2, executor.getPoolSize());
+            assertEquals(3, executor.getQueueDepth());
+            assertEquals(1, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(5, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        ServerExecutor executor = new ServerExecutor("test", 1, 1, RejectionPolicy.CALLER_RUNS, false);
+        CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> ranOn = new AtomicReference<>();
+        try {
+            executor.execute(blockOn(release));
+            executor.execute(blockOn(release));
+            executor.execute(new Runnable() {
+                public void run() {
+                    ranOn.set(Thread.currentThread());
+                }
+            });
+            assertEquals(Thread.currentThread(), ranOn.get());
+            assertEquals(1, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreadNames() throws Exception {
+        ServerExecutor executor = new ServerExecutor("test-server", 1, 1, RejectionPolicy.ABORT, false);
+        final AtomicReference<Thread> ranOn = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    ranOn.set(Thread.currentThread());
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(ranOn.get().getName().startsWith("test-server-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2019 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Verify {@link BoundedStreamProvider} bounds open streams and is shared per key.
+ */
+public class BoundedStreamProviderTest {
+
+    @Test
+    public void testSharedPerKey() throws Exception {
+        StreamProvider delegate = new CountingStreamProvider(false);
+        BoundedStreamProvider first = BoundedStreamProvider.getStreamProvider("testSharedPerKey", delegate, 1);
+        assertSame(first, BoundedStreamProvider.getStreamProvider("testSharedPerKey", new CountingStreamProvider(false), 1));
+    }
+
+    @Test
+    public void testRemovedOnLastRelease() throws Exception {
+        BoundedStreamProvider first = BoundedStreamProvider.getStreamProvider("testRemovedOnLastRelease", new CountingStreamProvider(false), 1);
+        BoundedStreamProvider second = BoundedStreamProvider.getStreamProvider("testRemovedOnLastRelease", new CountingStreamProvider(false), 1);
+        first.release();
+        assertSame(first, BoundedStreamProvider.getStreamProvider("testRemovedOnLastRelease", new CountingStreamProvider(false), 1));
+        first.release();
+        second.release();
+        assertNotSame(first, BoundedStreamProvider.getStreamProvider("testRemovedOnLastRelease", new CountingStreamProvider(false), 1));
+    }
+
+    @Test
+    public void testGrowsToLargestMaxConnections() throws Exception {
+        BoundedStreamProvider provider = BoundedStreamProvider.getStreamProvider("testGrowsToLargestMaxConnections", new CountingStreamProvider(false), 1);
+        BoundedStreamProvider.getStreamProvider("testGrowsToLargestMaxConnections", new CountingStreamProvider(false), 2);
+        provider.openStream("http://localhost", headers(), 50, 50);
+        provider.openStream("http://localhost", headers(), 50, 50);
+        try {
+            provider.openStream("http://localhost", headers(), 50, 50);
+            fail("Both permits should be taken");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testPermitReleasedOnClose() throws Exception {
+        BoundedStreamProvider provider = new BoundedStreamProvider(new CountingStreamProvider(false), 1);
+        InputStream stream = provider.openStream("http://localhost", headers(), 50, 50);
+        try {
+            provider.openStream("http://localhost", headers(), 50, 50);
+            fail("The only permit should be taken");
+        } catch (IOException expected) {
+        }
+        stream.close();
+        // closing twice must not hand out an extra permit
+        stream.close();
+        provider.openStream("http://localhost", headers(), 50, 50);
+        try {
+            provider.openStream("http://localhost", headers(), 50, 50);
+            fail("The only permit should be taken");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testPermitReleasedOnFailure() throws Exception {
+        CountingStreamProvider delegate = new CountingStreamProvider(true);
+        BoundedStreamProvider provider = new BoundedStreamProvider(delegate, 1);
+        for (int i = 0; i < 3; i++) {
+            try {
+                provider.openStream("http://localhost", headers(), 50, 50);
+                fail("Delegate should fail");
+            } catch (IOException expected) {
+            }
+        }
+        assertEquals(3, delegate.opened.get());
+    }
+
+    private static Map<String, String> headers() {
+        return Collections.<String, String>emptyMap();
+    }
+
+    private static class CountingStreamProvider implements StreamProvider {
+        private final boolean fail;
+        private final AtomicInteger opened = new AtomicInteger();
+
+        private CountingStreamProvider(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+            opened.incrementAndGet();
+            if (fail) {
+                throw new IOException("Server returned HTTP response code: 500");
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+}
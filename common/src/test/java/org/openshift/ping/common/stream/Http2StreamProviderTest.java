@@ -0,0 +1,316 @@
+/*
+ *  Copyright 2019 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.common.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.Test;
+import org.xnio.Options;
+import org.xnio.SslClientAuthMode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Protocols;
+
+/**
+ * Verify {@link Http2StreamProvider} multiplexes requests over HTTP/2 against an Undertow server, with either
+ * credential, falls back when HTTP/2 can't be used, and is closed by its last user.
+ */
+@SuppressWarnings("restriction")
+public class Http2StreamProviderTest {
+
+    @Test
+    public void testFallbackForHttp() throws Exception {
+        CountingStreamProvider fallback = new CountingStreamProvider();
+        Http2StreamProvider provider = new Http2StreamProvider(new InsecureStreamProvider(), fallback);
+        try {
+            provider.openStream("http://localhost:8080/api/v1", headers(), 1000, 1000).close();
+            assertEquals(1, fallback.opened.get());
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void testFallbackWhenHttp2NotNegotiated() throws Exception {
+        // the JDK's server only speaks HTTP/1.1
+        final AtomicInteger requests = new AtomicInteger();
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(createServerContext()));
+        server.createContext("/", new com.sun.net.httpserver.HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        CountingStreamProvider fallback = new CountingStreamProvider();
+        Http2StreamProvider provider = new Http2StreamProvider(new InsecureStreamProvider(), fallback);
+        try {
+            String url = String.format("https://localhost:%s/api/v1", server.getAddress().getPort());
+            provider.openStream(url, headers(), 5000, 5000).close();
+            provider.openStream(url, headers(), 5000, 5000).close();
+            assertEquals(2, fallback.opened.get());
+            assertEquals(0, requests.get());
+        } finally {
+            provider.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testClosedOnLastRelease() throws Exception {
+        CountingStreamProvider fallback = new CountingStreamProvider();
+        Http2StreamProvider first = Http2StreamProvider.getStreamProvider("testClosedOnLastRelease", new InsecureStreamProvider(), fallback);
+        Http2StreamProvider second = Http2StreamProvider.getStreamProvider("testClosedOnLastRelease", new InsecureStreamProvider(), fallback);
+        first.release();
+        try {
+            second.openStream("https://localhost:1/api/v1", headers(), 1000, 1000);
+            fail("Nothing listens on port 1");
+        } catch (IOException expected) {
+        }
+        second.release();
+        try {
+            second.openStream("https://localhost:1/api/v1", headers(), 1000, 1000);
+            fail("Provider should be closed");
+        } catch (IOException expected) {
+            assertEquals("Http2StreamProvider is closed.", expected.getMessage());
+        }
+        Http2StreamProvider third = Http2StreamProvider.getStreamProvider("testClosedOnLastRelease", new InsecureStreamProvider(), fallback);
+        assertNotSame(first, third);
+        third.release();
+    }
+
+    @Test
+    public void testMultiplexedWithToken() throws Exception {
+        final int requests = 5;
+        // every request waits until all of them have arrived, which they only can over one multiplexed connection
+        final CountDownLatch arrived = new CountDownLatch(requests);
+        RecordingHandler handler = new RecordingHandler(arrived);
+        Undertow server = startHttp2Server(handler);
+        CountingStreamProvider fallback = new CountingStreamProvider();
+        final Http2StreamProvider provider = new Http2StreamProvider(
+                new TokenStreamProvider("my-token", resource("localhost.crt")), fallback);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            final String url = String.format("https://localhost:%s/api/v1/namespaces/default/pods", getPort(server));
+            List<Future<Void>> responses = new ArrayList<Future<Void>>();
+            for (int i = 0; i < requests; i++) {
+                responses.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        provider.openStream(url, headers(), 5000, 5000).close();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> response : responses) {
+                response.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(0, fallback.opened.get());
+            assertEquals(requests, handler.protocols.size());
+            assertEquals(Collections.singleton(Protocols.HTTP_2_0.toString()), new HashSet<String>(handler.protocols));
+            assertEquals(Collections.singleton("Bearer my-token"), new HashSet<String>(handler.authorizations));
+            // one connection, so one client port
+            assertEquals(1, new HashSet<InetSocketAddress>(handler.sources).size());
+        } finally {
+            executor.shutdownNow();
+            provider.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testClientCertificate() throws Exception {
+        RecordingHandler handler = new RecordingHandler(null);
+        Undertow server = startHttp2Server(handler);
+        CountingStreamProvider fallback = new CountingStreamProvider();
+        Http2StreamProvider provider = new Http2StreamProvider(new CertificateStreamProvider(
+                resource("client.crt"), resource("client.key"), null, null, resource("localhost.crt")), fallback);
+        try {
+            String url = String.format("https://localhost:%s/api/v1", getPort(server));
+            provider.openStream(url, headers(), 5000, 5000).close();
+            assertEquals(0, fallback.opened.get());
+            assertEquals(Collections.singletonList(Protocols.HTTP_2_0.toString()), new ArrayList<String>(handler.protocols));
+            assertEquals("CN=ping-client", handler.clients.peek());
+            // no token with a client certificate
+            assertEquals(Collections.singletonList("none"), new ArrayList<String>(handler.authorizations));
+        } finally {
+            provider.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHostNameVerified() throws Exception {
+        RecordingHandler handler = new RecordingHandler(null);
+        Undertow server = startHttp2Server(handler);
+        CountingStreamProvider fallback = new CountingStreamProvider();
+        Http2StreamProvider provider = new Http2StreamProvider(
+                new TokenStreamProvider("my-token", resource("localhost.crt")), fallback);
+        try {
+            // the certificate is trusted, but names localhost and 127.0.0.1 only
+            provider.openStream(String.format("https://127.0.0.2:%s/api/v1", getPort(server)), headers(), 5000, 5000);
+            fail("The host name should not have been accepted");
+        } catch (IOException expected) {
+        } finally {
+            provider.close();
+            server.stop();
+        }
+        assertEquals(0, fallback.opened.get());
+        assertTrue(handler.protocols.isEmpty());
+    }
+
+    private static Undertow startHttp2Server(HttpHandler handler) throws Exception {
+        Undertow server = Undertow.builder()
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setSocketOption(Options.SSL_CLIENT_AUTH_MODE, SslClientAuthMode.REQUESTED)
+                .addHttpsListener(0, "0.0.0.0", createServerContext())
+                .setHandler(handler)
+                .build();
+        server.start();
+        return server;
+    }
+
+    private static int getPort(Undertow server) {
+        return ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    private static String resource(String name) throws Exception {
+        return new File(Http2StreamProviderTest.class.getResource("/certificates/" + name).toURI()).getPath();
+    }
+
+    private static SSLContext createServerContext() throws Exception {
+        char[] password = "password".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = Http2StreamProviderTest.class.getResourceAsStream("/certificates/localhost.p12");
+        try {
+            keyStore.load(in, password);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        // clients may present client.crt
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null);
+        InputStream cert = Http2StreamProviderTest.class.getResourceAsStream("/certificates/client.crt");
+        try {
+            trustStore.setCertificateEntry("client", CertificateFactory.getInstance("X509").generateCertificate(cert));
+        } finally {
+            cert.close();
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        return context;
+    }
+
+    private static Map<String, String> headers() {
+        return new HashMap<String, String>();
+    }
+
+    /**
+     * Records what each request came with, and answers it once the latch, if any, is down.
+     */
+    private static class RecordingHandler implements HttpHandler {
+        private final CountDownLatch arrived;
+        private final ConcurrentLinkedQueue<String> protocols = new ConcurrentLinkedQueue<String>();
+        private final ConcurrentLinkedQueue<String> authorizations = new ConcurrentLinkedQueue<String>();
+        private final ConcurrentLinkedQueue<InetSocketAddress> sources = new ConcurrentLinkedQueue<InetSocketAddress>();
+        private final ConcurrentLinkedQueue<String> clients = new ConcurrentLinkedQueue<String>();
+
+        private RecordingHandler(CountDownLatch arrived) {
+            this.arrived = arrived;
+        }
+
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(this);
+                return;
+            }
+            protocols.add(exchange.getProtocol().toString());
+            String authorization = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
+            authorizations.add(authorization != null ? authorization : "none");
+            sources.add(exchange.getSourceAddress());
+            try {
+                Certificate[] peer = exchange.getConnection().getSslSessionInfo().getPeerCertificates();
+                clients.add(((X509Certificate) peer[0]).getSubjectX500Principal().getName());
+            } catch (Exception none) {
+                // no client certificate
+            }
+            if (arrived != null) {
+                arrived.countDown();
+                if (!arrived.await(5, TimeUnit.SECONDS)) {
+                    exchange.setStatusCode(500);
+                }
+            }
+            exchange.getResponseSender().send("{}");
+        }
+    }
+
+    private static class CountingStreamProvider implements StreamProvider {
+        private final AtomicInteger opened = new AtomicInteger();
+
+        @Override
+        public InputStream openStream(String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+            opened.incrementAndGet();
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+}
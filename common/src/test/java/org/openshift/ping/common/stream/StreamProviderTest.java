@@ -21,6 +21,8 @@ import static org.junit.Assert.assertTrue;
 
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.nio.file.Files;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 
@@ -46,6 +48,21 @@ public class StreamProviderTest {
         testConfigureCaCert(CertificateStreamProvider.configureCaCert(CA_FILE));
     }
 
+    @Test
+    public void testTokenStreamProviderRereadsToken() throws Exception {
+        File tokenFile = File.createTempFile("token", null);
+        try {
+            Files.write(tokenFile.toPath(), "first".getBytes());
+            TokenStreamProvider provider = new TokenStreamProvider(tokenFile, CA_FILE);
+            assertEquals("Bearer first", provider.getAuthorization());
+            // rotated
+            Files.write(tokenFile.toPath(), "second".getBytes());
+            assertEquals("Bearer second", provider.getAuthorization());
+        } finally {
+            tokenFile.delete();
+        }
+    }
+
     private static void testConfigureCaCert(TrustManager[] trustManagers) {
         assertEquals(1, trustManagers.length);
         X509TrustManager trustManager = (X509TrustManager) trustManagers[0];
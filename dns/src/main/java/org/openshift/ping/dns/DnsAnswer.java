@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The records a {@link DnsClient} query found, with the name that had them and how long they may be cached.
+ */
+public class DnsAnswer {
+    private final String name;
+    private final List<String> addresses;
+    private final List<DnsRecord> serviceRecords;
+    private final Map<String, List<String>> additionalAddresses;
+    private final long ttl;
+
+    public DnsAnswer(String name, List<String> addresses, List<DnsRecord> serviceRecords,
+            Map<String, List<String>> additionalAddresses, long ttl) {
+        this.name = name;
+        this.addresses = Collections.unmodifiableList(addresses);
+        this.serviceRecords = Collections.unmodifiableList(serviceRecords);
+        this.additionalAddresses = Collections.unmodifiableMap(additionalAddresses);
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return the name that was answered for, after the search domains were applied
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the addresses of the A records
+     */
+    public List<String> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * @return the SRV records, in the order the server gave them
+     */
+    public List<DnsRecord> getServiceRecords() {
+        return serviceRecords;
+    }
+
+    /**
+     * @return the addresses the server volunteered in the additional section, by host name; for an SRV answer,
+     *         usually those of the targets
+     */
+    public Map<String, List<String>> getAdditionalAddresses() {
+        return additionalAddresses;
+    }
+
+    /**
+     * @return how long the records may be cached, in seconds: the lowest TTL among them, or 0 without records
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    public boolean isEmpty() {
+        return addresses.isEmpty() && serviceRecords.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[name=%s, addresses=%s, serviceRecords=%s, ttl=%s]",
+                getClass().getSimpleName(), name, addresses, serviceRecords, ttl);
+    }
+}
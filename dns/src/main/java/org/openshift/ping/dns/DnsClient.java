@@ -0,0 +1,650 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small stub resolver for A and SRV lookups. Queries go out over UDP from one non-blocking channel, and a single
+ * selector thread matches the answers to them, so any number of lookups can be in flight at once without a thread
+ * each. Answers the server truncated are asked for again over TCP, on a separate thread.
+ * <p>
+ * Name servers, search domains, ndots, timeout and attempts come from {@link ResolvConf}, and are applied the way
+ * the system resolver applies them: every name server is tried for a name, in turn and as many times as attempts,
+ * before a lookup fails; names the server doesn't know move on to the next search domain.
+ * <p>
+ * Results come back as {@link Future}s, and optionally through a {@link Callback}.
+ */
+public class DnsClient implements Closeable {
+    private static final Logger log = Logger.getLogger(DnsClient.class.getName());
+
+    public static final int TYPE_A = 1;
+    public static final int TYPE_SRV = 33;
+    private static final int TYPE_CNAME = 5;
+    private static final int CLASS_IN = 1;
+
+    private static final int FLAG_RESPONSE = 0x8000;
+    private static final int FLAG_TRUNCATED = 0x0200;
+    private static final int FLAG_RECURSION_DESIRED = 0x0100;
+    private static final int RCODE_OK = 0;
+    private static final int RCODE_NAME_ERROR = 3;
+
+    private static final int MAX_MESSAGE_SIZE = 65535;
+
+    /**
+     * Gets the outcome of a lookup on the selector thread, or on the TCP thread for truncated answers; it must
+     * not block.
+     */
+    public interface Callback {
+        void completed(DnsAnswer answer);
+
+        void failed(Exception e);
+    }
+
+    private final ResolvConf conf;
+    private final Selector selector;
+    private final DatagramChannel channel;
+    private final Thread selectorThread;
+    private final ExecutorService tcpExecutor;
+    private final Queue<Lookup> submitted = new ConcurrentLinkedQueue<Lookup>();
+    // only touched on the selector thread
+    private final Map<Integer, Lookup> pending = new HashMap<Integer, Lookup>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+    private volatile boolean closed;
+
+    public DnsClient() throws IOException {
+        this(ResolvConf.load());
+    }
+
+    public DnsClient(ResolvConf conf) throws IOException {
+        this.conf = conf;
+        this.selector = Selector.open();
+        try {
+            this.channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(null);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+        this.tcpExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("DnsClient-tcp-"));
+        this.selectorThread = new NamedThreadFactory("DnsClient-selector-").newThread(new SelectorLoop());
+        selectorThread.start();
+    }
+
+    public ResolvConf getConf() {
+        return conf;
+    }
+
+    public Future<DnsAnswer> query(String name, int type) {
+        return query(name, type, null);
+    }
+
+    /**
+     * @param type {@link #TYPE_A} or {@link #TYPE_SRV}
+     * @param callback told of the outcome as well, or null
+     */
+    public Future<DnsAnswer> query(String name, int type, Callback callback) {
+        Lookup lookup = new Lookup(name, type, conf.getCandidates(name), callback);
+        submit(lookup);
+        if (closed) {
+            // the selector thread may be gone already
+            lookup.fail(new IOException("DnsClient closed"));
+        }
+        return lookup;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        tcpExecutor.shutdownNow();
+        try {
+            selectorThread.join(conf.getTimeout());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Lookup lookup) {
+        submitted.offer(lookup);
+        selector.wakeup();
+    }
+
+    private class SelectorLoop implements Runnable {
+        public void run() {
+            try {
+                while (!closed) {
+                    long wait = nextTimeout();
+                    if (wait > 0) {
+                        selector.select(wait);
+                    } else if (wait == 0) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                    selector.selectedKeys().clear();
+                    receive();
+                    sendSubmitted();
+                    expire();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!closed && log.isLoggable(Level.WARNING)) {
+                    log.log(Level.WARNING, "DnsClient stopped", e);
+                }
+            } finally {
+                closeQuietly();
+                IOException closedException = new IOException("DnsClient closed");
+                for (Lookup lookup : pending.values()) {
+                    lookup.fail(closedException);
+                }
+                pending.clear();
+                Lookup lookup;
+                while ((lookup = submitted.poll()) != null) {
+                    lookup.fail(closedException);
+                }
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+        try {
+            selector.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * @return ms until the next lookup times out, 0 if none is pending, or -1 if one is already due
+     */
+    private long nextTimeout() {
+        if (!submitted.isEmpty()) {
+            return -1;
+        }
+        long next = Long.MAX_VALUE;
+        for (Lookup lookup : pending.values()) {
+            next = Math.min(next, lookup.deadline);
+        }
+        if (next == Long.MAX_VALUE) {
+            return 0;
+        }
+        long wait = TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime());
+        return wait > 0 ? wait : -1;
+    }
+
+    private void sendSubmitted() {
+        Lookup lookup;
+        while ((lookup = submitted.poll()) != null) {
+            if (lookup.isDone()) {
+                continue;
+            }
+            try {
+                byte[] question = encodeQuery(0, lookup.currentName(), lookup.type);
+                int id;
+                do {
+                    id = ThreadLocalRandom.current().nextInt(0x10000);
+                } while (pending.containsKey(id));
+                lookup.id = id;
+                lookup.query = question;
+                question[0] = (byte) (id >>> 8);
+                question[1] = (byte) id;
+                pending.put(id, lookup);
+                send(lookup);
+            } catch (IllegalArgumentException e) {
+                lookup.fail(e);
+            }
+        }
+    }
+
+    private void send(Lookup lookup) {
+        List<InetSocketAddress> servers = conf.getNameservers();
+        lookup.server = servers.get(lookup.tries % servers.size());
+        lookup.tries++;
+        lookup.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(conf.getTimeout());
+        try {
+            // a datagram that can't go out now is as good as lost; the timeout takes care of it
+            channel.send(ByteBuffer.wrap(lookup.query), lookup.server);
+        } catch (IOException e) {
+            if (log.isLoggable(Level.FINE)) {
+                log.log(Level.FINE, String.format("Could not send query for [%s] to %s", lookup.currentName(), lookup.server), e);
+            }
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        Iterator<Lookup> lookups = pending.values().iterator();
+        List<Lookup> retries = new ArrayList<Lookup>();
+        while (lookups.hasNext()) {
+            Lookup lookup = lookups.next();
+            if (lookup.isDone()) {
+                lookups.remove();
+            } else if (now - lookup.deadline >= 0) {
+                if (lookup.tries < conf.getAttempts() * conf.getNameservers().size()) {
+                    retries.add(lookup);
+                } else {
+                    lookups.remove();
+                    lookup.fail(new SocketTimeoutException(String.format("No answer for [%s] from %s",
+                            lookup.currentName(), conf.getNameservers())));
+                }
+            }
+        }
+        for (Lookup lookup : retries) {
+            send(lookup);
+        }
+    }
+
+    private void receive() throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress from = channel.receive(receiveBuffer);
+            if (from == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            if (receiveBuffer.remaining() < 12) {
+                continue;
+            }
+            int id = receiveBuffer.getShort(0) & 0xffff;
+            Lookup lookup = pending.get(id);
+            // only the server asked may answer
+            if (lookup == null || !from.equals(lookup.server)) {
+                continue;
+            }
+            byte[] message = new byte[receiveBuffer.remaining()];
+            receiveBuffer.get(message);
+            handle(lookup, message, false);
+        }
+    }
+
+    /**
+     * Called on the selector thread for UDP answers, and on a TCP thread for answers asked again over TCP.
+     */
+    private void handle(final Lookup lookup, byte[] message, boolean tcp) {
+        Response response;
+        try {
+            response = parse(message, lookup.id, lookup.currentName(), lookup.type);
+        } catch (IOException | RuntimeException e) {
+            // not an answer to our question, or garbled; a good answer may still come, or the timeout retries
+            if (log.isLoggable(Level.FINE)) {
+                log.log(Level.FINE, String.format("Ignoring answer for [%s] from %s", lookup.currentName(), lookup.server), e);
+            }
+            if (tcp) {
+                lookup.fail(e instanceof IOException ? (IOException) e : new IOException(e));
+            }
+            return;
+        }
+        if (!tcp) {
+            pending.remove(lookup.id);
+        }
+        if (response.truncated && !tcp) {
+            try {
+                tcpExecutor.execute(new Runnable() {
+                    public void run() {
+                        queryTcp(lookup);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                lookup.fail(new IOException("DnsClient closed"));
+            }
+        } else if (response.rcode == RCODE_OK && !response.answer.isEmpty()) {
+            lookup.complete(response.answer);
+        } else if (response.rcode == RCODE_OK || response.rcode == RCODE_NAME_ERROR) {
+            // nothing under this name; try the next search domain, if any
+            if (lookup.nextName()) {
+                submit(lookup);
+            } else {
+                lookup.complete(response.answer);
+            }
+        } else if (lookup.tries < conf.getAttempts() * conf.getNameservers().size()) {
+            // the server failed or refused; ask the next one
+            submit(lookup);
+        } else {
+            lookup.fail(new IOException(String.format("DNS error %s for [%s] from %s", response.rcode, lookup.currentName(), lookup.server)));
+        }
+    }
+
+    private void queryTcp(Lookup lookup) {
+        byte[] message;
+        try (Socket socket = new Socket()) {
+            int timeout = (int) Math.min(Integer.MAX_VALUE, conf.getTimeout());
+            socket.connect(lookup.server, timeout);
+            socket.setSoTimeout(timeout);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeShort(lookup.query.length);
+            out.write(lookup.query);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            message = new byte[in.readUnsignedShort()];
+            in.readFully(message);
+        } catch (IOException e) {
+            lookup.fail(e);
+            return;
+        }
+        handle(lookup, message, true);
+    }
+
+    static byte[] encodeQuery(int id, String name, int type) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + name.length() + 2 + 4);
+        buffer.putShort((short) id);
+        buffer.putShort((short) FLAG_RECURSION_DESIRED);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        if (name.length() > 253) {
+            throw new IllegalArgumentException(String.format("Name too long: [%s]", name));
+        }
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length == 0 || bytes.length > 63) {
+                throw new IllegalArgumentException(String.format("Bad name: [%s]", name));
+            }
+            buffer.put((byte) bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.put((byte) 0);
+        buffer.putShort((short) type);
+        buffer.putShort((short) CLASS_IN);
+        byte[] query = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(query);
+        return query;
+    }
+
+    private static class Response {
+        private final int rcode;
+        private final boolean truncated;
+        private final DnsAnswer answer;
+
+        private Response(int rcode, boolean truncated, DnsAnswer answer) {
+            this.rcode = rcode;
+            this.truncated = truncated;
+            this.answer = answer;
+        }
+    }
+
+    static Response parse(byte[] message, int id, String name, int type) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        try {
+            int flags = buffer.getShort(2) & 0xffff;
+            if ((buffer.getShort(0) & 0xffff) != id || (flags & FLAG_RESPONSE) == 0) {
+                throw new IOException("Not an answer to the query");
+            }
+            buffer.position(4);
+            int questions = buffer.getShort() & 0xffff;
+            int answers = buffer.getShort() & 0xffff;
+            int authorities = buffer.getShort() & 0xffff;
+            int additionals = buffer.getShort() & 0xffff;
+            if (questions != 1 || !name.equalsIgnoreCase(readName(buffer)) || (buffer.getShort() & 0xffff) != type) {
+                throw new IOException("Answer is for another question");
+            }
+            buffer.getShort();
+            boolean truncated = (flags & FLAG_TRUNCATED) != 0;
+            int rcode = flags & 0xf;
+            List<String> addresses = new ArrayList<String>();
+            List<DnsRecord> serviceRecords = new ArrayList<DnsRecord>();
+            Map<String, List<String>> additionalAddresses = new LinkedHashMap<String, List<String>>();
+            long ttl = Long.MAX_VALUE;
+            if (!truncated) {
+                for (int i = 0; i < answers + authorities + additionals; i++) {
+                    String owner = readName(buffer);
+                    int recordType = buffer.getShort() & 0xffff;
+                    int recordClass = buffer.getShort() & 0xffff;
+                    long recordTtl = buffer.getInt();
+                    // RFC 2181: a TTL with the top bit set is 0
+                    recordTtl = recordTtl < 0 ? 0 : recordTtl;
+                    int length = buffer.getShort() & 0xffff;
+                    int end = buffer.position() + length;
+                    if (recordClass == CLASS_IN && i < answers) {
+                        if (recordType == type && type == TYPE_A && length == 4) {
+                            addresses.add(readAddress(buffer));
+                            ttl = Math.min(ttl, recordTtl);
+                        } else if (recordType == type && type == TYPE_SRV) {
+                            int priority = buffer.getShort() & 0xffff;
+                            int weight = buffer.getShort() & 0xffff;
+                            int port = buffer.getShort() & 0xffff;
+                            serviceRecords.add(new DnsRecord(priority, weight, port, readName(buffer)));
+                            ttl = Math.min(ttl, recordTtl);
+                        } else if (recordType == TYPE_CNAME) {
+                            // the records of the alias follow; the answer may only be kept as long as the alias
+                            ttl = Math.min(ttl, recordTtl);
+                        }
+                    } else if (recordClass == CLASS_IN && i >= answers + authorities && recordType == TYPE_A && length == 4) {
+                        String host = owner.toLowerCase(Locale.ENGLISH);
+                        List<String> hostAddresses = additionalAddresses.get(host);
+                        if (hostAddresses == null) {
+                            hostAddresses = new ArrayList<String>();
+                            additionalAddresses.put(host, hostAddresses);
+                        }
+                        hostAddresses.add(readAddress(buffer));
+                    }
+                    buffer.position(end);
+                }
+            }
+            if (addresses.isEmpty() && serviceRecords.isEmpty()) {
+                ttl = 0;
+            }
+            return new Response(rcode, truncated, new DnsAnswer(name, addresses, serviceRecords, additionalAddresses, ttl));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated DNS message", e);
+        }
+    }
+
+    private static String readAddress(ByteBuffer buffer) throws IOException {
+        byte[] address = new byte[4];
+        buffer.get(address);
+        return InetAddress.getByAddress(address).getHostAddress();
+    }
+
+    private static String readName(ByteBuffer buffer) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int position = buffer.position();
+        int resume = -1;
+        // a pointer must point backwards, so a name can't loop
+        int limit = position;
+        while (true) {
+            int length = buffer.get(position) & 0xff;
+            if ((length & 0xc0) == 0xc0) {
+                int target = ((length & 0x3f) << 8) | (buffer.get(position + 1) & 0xff);
+                if (target >= limit) {
+                    throw new IOException("Bad name compression pointer");
+                }
+                if (resume < 0) {
+                    resume = position + 2;
+                }
+                position = limit = target;
+            } else if (length == 0) {
+                buffer.position(resume >= 0 ? resume : position + 1);
+                return name.toString();
+            } else if (length > 63) {
+                throw new IOException("Bad label length");
+            } else {
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                for (int i = 1; i <= length; i++) {
+                    name.append((char) (buffer.get(position + i) & 0xff));
+                }
+                position += length + 1;
+            }
+        }
+    }
+
+    /**
+     * One lookup, through its candidate names and the name servers; the ids and deadlines of its queries are
+     * only touched on the selector thread.
+     */
+    private static class Lookup implements Future<DnsAnswer> {
+        private final String name;
+        private final int type;
+        private final List<String> candidates;
+        private final Callback callback;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicInteger state = new AtomicInteger();
+        private volatile int candidate;
+        private volatile DnsAnswer answer;
+        private volatile Exception failure;
+        private volatile boolean cancelled;
+        // the current query
+        private int id;
+        private byte[] query;
+        private volatile InetSocketAddress server;
+        private volatile int tries;
+        private long deadline;
+
+        private Lookup(String name, int type, List<String> candidates, Callback callback) {
+            this.name = name;
+            this.type = type;
+            this.candidates = candidates;
+            this.callback = callback;
+        }
+
+        private String currentName() {
+            return candidates.get(candidate);
+        }
+
+        private boolean nextName() {
+            if (candidate + 1 < candidates.size()) {
+                candidate++;
+                tries = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void complete(DnsAnswer value) {
+            if (state.compareAndSet(0, 1)) {
+                answer = value;
+                done.countDown();
+                if (callback != null) {
+                    callback.completed(value);
+                }
+            }
+        }
+
+        private void fail(Exception e) {
+            if (state.compareAndSet(0, 1)) {
+                failure = e;
+                done.countDown();
+                if (callback != null) {
+                    callback.failed(e);
+                }
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (state.compareAndSet(0, 1)) {
+                cancelled = true;
+                done.countDown();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public DnsAnswer get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        public DnsAnswer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException(String.format("No answer for [%s] yet", name));
+            }
+            return result();
+        }
+
+        private DnsAnswer result() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return answer;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -20,15 +20,18 @@ import static org.openshift.ping.common.Utils.execute;
 import static org.openshift.ping.common.Utils.getSystemEnv;
 import static org.openshift.ping.common.Utils.getSystemEnvInt;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.jgroups.annotations.MBean;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.ClassConfigurator;
+import org.openshift.ping.common.CircuitBreaker;
 import org.openshift.ping.common.OpenshiftPing;
 
 @MBean(description = "DNS based discovery protocol")
@@ -48,6 +51,17 @@ public class DnsPing extends OpenshiftPing {
     private int servicePort;
     private int _servicePort;
 
+    @Property
+    private long dnsCacheTtl = 5000;
+    private DnsResolver _resolver;
+
+    @Property
+    private boolean dnsClientEnabled = false;
+
+    @Property
+    private String dnsRecordType = "A"; // "SRV" takes the hosts and their ports from the service's SRV records
+    private boolean _srvRecords;
+
     public DnsPing() {
         super("OPENSHIFT_DNS_PING_");
     }
@@ -76,6 +90,8 @@ public class DnsPing extends OpenshiftPing {
         if (log.isInfoEnabled()) {
             log.info(String.format("serviceName [%s] set; clustering enabled", _serviceName));
         }
+        _srvRecords = "SRV".equalsIgnoreCase(getSystemEnv(getSystemEnvName("DNS_RECORD_TYPE"), dnsRecordType, true));
+        _resolver = new DnsResolver((long) getSystemEnvInt(getSystemEnvName("DNS_CACHE_TTL"), (int) dnsCacheTtl), getDnsClient());
         _servicePort = getServicePort();
     }
 
@@ -83,15 +99,43 @@ public class DnsPing extends OpenshiftPing {
     public void destroy() {
         _serviceName = null;
         _servicePort = 0;
+        _srvRecords = false;
+        if (_resolver != null) {
+            _resolver.close();
+            _resolver = null;
+        }
         super.destroy();
     }
 
+    private DnsClient getDnsClient() {
+        if (!Boolean.parseBoolean(getSystemEnv(getSystemEnvName("DNS_CLIENT_ENABLED"), String.valueOf(dnsClientEnabled), true))) {
+            return null;
+        }
+        try {
+            DnsClient client = new DnsClient();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Looking up DNS records with %s", client.getConf()));
+            }
+            return client;
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Could not open a DNS client; looking up DNS records through JNDI", e);
+            }
+            return null;
+        }
+    }
+
     private int getServicePort() {
         int svcPort = getSystemEnvInt(getSystemEnvName("SERVICE_PORT"));
         if (svcPort < 1) {
             svcPort = servicePort;
             if (svcPort < 1) {
-                Integer dnsPort = execute(new GetServicePort(_serviceName), getOperationAttempts(), getOperationSleep());
+                Integer dnsPort;
+                try {
+                    dnsPort = execute(new GetServicePort(_serviceName, _resolver), getRetryPolicy(), false, getMetrics());
+                } catch (Exception e) {
+                    dnsPort = null;
+                }
                 if (dnsPort != null) {
                     svcPort = dnsPort.intValue();
                 } else if (log.isWarnEnabled()) {
@@ -105,20 +149,91 @@ public class DnsPing extends OpenshiftPing {
         return svcPort;
     }
 
+    /**
+     * @return the hosts of the service, an empty set if DNS has none (e.g. the service's first pod, or no ready
+     *         endpoints yet), or null to keep the last known hosts if the lookup failed or the breaker is open
+     */
     private Set<String> getServiceHosts() {
-        Set<String> svcHosts = execute(new GetServiceHosts(_serviceName), getOperationAttempts(), getOperationSleep());
-        if (svcHosts == null) {
-            svcHosts = Collections.emptySet();
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (!breaker.allowRequest()) {
+            // DNS keeps failing; keep the last known hosts until the breaker lets a probe through
+            return null;
+        }
+        Set<String> svcHosts;
+        try {
+            svcHosts = lookup(new GetServiceHosts(_serviceName, _resolver));
+        } catch (Exception e) {
+            breaker.recordFailure();
             if (log.isWarnEnabled()) {
-                log.warn(String.format("No matching hosts found for service [%s]; continuing...", _serviceName));
+                log.warn(String.format("Could not look up the hosts of service [%s]; continuing with last known hosts... %s", _serviceName, e.getMessage()));
             }
+            return null;
+        }
+        // DNS answered, even if with no hosts; only failed lookups count against the breaker
+        breaker.recordSuccess();
+        if (svcHosts == null) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("No matching hosts found for service [%s]", _serviceName));
+            }
+            return Collections.emptySet();
         }
         return svcHosts;
     }
 
+    /**
+     * @return the addresses of the service's SRV targets, an empty list if DNS has none, or null to keep the last
+     *         known hosts if the lookup failed or the breaker is open
+     */
+    private List<InetSocketAddress> getServiceAddresses() {
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (!breaker.allowRequest()) {
+            return null;
+        }
+        List<InetSocketAddress> svcAddresses;
+        try {
+            svcAddresses = lookup(new GetServiceAddresses(_serviceName, _resolver));
+        } catch (Exception e) {
+            breaker.recordFailure();
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Could not look up the SRV records of service [%s]; continuing with last known hosts... %s", _serviceName, e.getMessage()));
+            }
+            return null;
+        }
+        breaker.recordSuccess();
+        if (svcAddresses == null) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("No SRV records with addresses found for service [%s]", _serviceName));
+            }
+            return Collections.emptyList();
+        }
+        return svcAddresses;
+    }
+
+    private <V> V lookup(Callable<V> callable) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            V value = execute(callable, getRetryPolicy(), true, getMetrics());
+            success = true;
+            return value;
+        } finally {
+            getMetrics().recordLookup(System.nanoTime() - start, success);
+        }
+    }
+
     @Override
-    protected synchronized List<InetSocketAddress> doReadAll(String clusterName) {
+    protected List<InetSocketAddress> doReadAll(String clusterName) {
+        if (_srvRecords) {
+            List<InetSocketAddress> serviceAddresses = getServiceAddresses();
+            if (serviceAddresses != null && log.isDebugEnabled()) {
+                log.debug(String.format("Reading service hosts and ports %s", serviceAddresses));
+            }
+            return serviceAddresses;
+        }
         Set<String> serviceHosts = getServiceHosts();
+        if (serviceHosts == null) {
+            return null;
+        }
         if (log.isDebugEnabled()) {
             log.debug(String.format("Reading service hosts %s on port [%s]", serviceHosts, _servicePort));
         }
@@ -0,0 +1,425 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * Looks up A and SRV records, and caches the answers in-process. Repeated discovery rounds don't go to the network
+ * until an answer expires, and aren't held to the JVM-wide networkaddress.cache.ttl either. Failed lookups and empty
+ * answers aren't cached.
+ * <p>
+ * With a {@link DnsClient}, answers are kept as long as their records' TTL allows, but no longer than cacheTtl
+ * milliseconds. Without one, lookups go through one JNDI DNS context, kept for the life of the resolver; that
+ * doesn't expose record TTLs, so every answer is kept for cacheTtl, which should then be at or below the TTL the DNS
+ * server hands out.
+ * <p>
+ * Once closed, the resolver refuses lookups with an {@link IllegalStateException}.
+ */
+public class DnsResolver {
+    private static final Logger log = Logger.getLogger(DnsResolver.class.getName());
+
+    private final long cacheTtl;
+    private final DnsClient client;
+    private final ConcurrentMap<String, Answer<Set<String>>> addresses = new ConcurrentHashMap<String, Answer<Set<String>>>();
+    private final ConcurrentMap<String, Answer<Set<DnsRecord>>> services = new ConcurrentHashMap<String, Answer<Set<DnsRecord>>>();
+    private volatile DirContext context;
+    private volatile ExecutorService executor;
+    private volatile boolean closed;
+
+    public DnsResolver(long cacheTtl) {
+        this(cacheTtl, null);
+    }
+
+    /**
+     * @param client the client to look records up with, closed with the resolver; or null to use JNDI
+     */
+    public DnsResolver(long cacheTtl, DnsClient client) {
+        this.cacheTtl = Math.max(0, cacheTtl);
+        this.client = client;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * @return the A record addresses of the name, or an empty set if there are none
+     */
+    public Set<String> getAddresses(String name) throws Exception {
+        checkOpen();
+        Answer<Set<String>> answer = addresses.get(name);
+        if (answer != null && !answer.isExpired()) {
+            return answer.value;
+        }
+        answer = lookupAddresses(name);
+        cache(addresses, name, answer);
+        return answer.value;
+    }
+
+    /**
+     * @param name the full SRV name, e.g. "_tcp." + the service name
+     * @return the SRV records of the name, by priority, or an empty set if there are none
+     */
+    public Set<DnsRecord> getServiceRecords(String name) throws Exception {
+        return startServiceLookup(name).call();
+    }
+
+    /**
+     * Looks up the A records of the service and the SRV records of "_tcp." + the service at the same time, so
+     * that both are cached after a single round trip.
+     */
+    public Set<DnsRecord> resolve(String serviceName) throws Exception {
+        Callable<Set<DnsRecord>> srv = startServiceLookup("_tcp." + serviceName);
+        try {
+            getAddresses(serviceName);
+        } catch (Exception e) {
+            if (log.isLoggable(Level.FINE)) {
+                log.log(Level.FINE, String.format("Could not look up the addresses of [%s]", serviceName), e);
+            }
+        }
+        return srv.call();
+    }
+
+    /**
+     * @param name the full SRV name, e.g. "_tcp." + the service name
+     * @return the address and port of every SRV target, or an empty list if there are none. The targets are looked
+     *         up at the same time, unless the server already gave their addresses along with the SRV records;
+     *         targets without addresses are left out.
+     */
+    public List<InetSocketAddress> getServiceAddresses(String name) throws Exception {
+        Set<DnsRecord> records = getServiceRecords(name);
+        List<Callable<Set<String>>> lookups = new ArrayList<Callable<Set<String>>>(records.size());
+        for (DnsRecord record : records) {
+            lookups.add(startAddressLookup(record.getHost()));
+        }
+        Set<InetSocketAddress> serviceAddresses = new LinkedHashSet<InetSocketAddress>();
+        Iterator<Callable<Set<String>>> lookup = lookups.iterator();
+        for (DnsRecord record : records) {
+            try {
+                for (String address : lookup.next().call()) {
+                    serviceAddresses.add(new InetSocketAddress(address, record.getPort()));
+                }
+            } catch (Exception e) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, String.format("Could not look up the addresses of [%s]", record.getHost()), e);
+                }
+            }
+        }
+        return new ArrayList<InetSocketAddress>(serviceAddresses);
+    }
+
+    /**
+     * Sends the A query off, unless the answer is cached.
+     *
+     * @return what waits for the answer and caches it
+     */
+    private Callable<Set<String>> startAddressLookup(final String name) {
+        checkOpen();
+        final Answer<Set<String>> cached = addresses.get(name);
+        if (cached != null && !cached.isExpired()) {
+            return new Callable<Set<String>>() {
+                public Set<String> call() {
+                    return cached.value;
+                }
+            };
+        }
+        if (client != null) {
+            final Future<DnsAnswer> query = client.query(name, DnsClient.TYPE_A);
+            return new Callable<Set<String>>() {
+                public Set<String> call() throws Exception {
+                    Answer<Set<String>> value = toAddresses(name, await(query));
+                    cache(addresses, name, value);
+                    return value.value;
+                }
+            };
+        }
+        final Future<Answer<Set<String>>> lookup = getExecutor().submit(new Callable<Answer<Set<String>>>() {
+            public Answer<Set<String>> call() throws Exception {
+                return lookupAddresses(name);
+            }
+        });
+        return new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                Answer<Set<String>> value = await(lookup);
+                cache(addresses, name, value);
+                return value.value;
+            }
+        };
+    }
+
+    /**
+     * Sends the SRV query off, unless the answer is cached.
+     *
+     * @return what waits for the answer and caches it
+     */
+    private Callable<Set<DnsRecord>> startServiceLookup(final String name) {
+        checkOpen();
+        final Answer<Set<DnsRecord>> cached = services.get(name);
+        if (cached != null && !cached.isExpired()) {
+            return new Callable<Set<DnsRecord>>() {
+                public Set<DnsRecord> call() {
+                    return cached.value;
+                }
+            };
+        }
+        if (client != null) {
+            final Future<DnsAnswer> query = client.query(name, DnsClient.TYPE_SRV);
+            return new Callable<Set<DnsRecord>>() {
+                public Set<DnsRecord> call() throws Exception {
+                    DnsAnswer answer = await(query);
+                    Answer<Set<DnsRecord>> value = newAnswer(new TreeSet<DnsRecord>(answer.getServiceRecords()), answer.getTtl());
+                    cache(services, name, value);
+                    // the targets' addresses, if the server sent them along; kept as long as the SRV records
+                    for (Map.Entry<String, List<String>> target : answer.getAdditionalAddresses().entrySet()) {
+                        cache(addresses, target.getKey(), newAnswer(new LinkedHashSet<String>(target.getValue()), answer.getTtl()));
+                    }
+                    return value.value;
+                }
+            };
+        }
+        final Future<Answer<Set<DnsRecord>>> lookup = getExecutor().submit(new Callable<Answer<Set<DnsRecord>>>() {
+            public Answer<Set<DnsRecord>> call() throws Exception {
+                return newAnswer(lookupServiceRecords(name), -1);
+            }
+        });
+        return new Callable<Set<DnsRecord>>() {
+            public Set<DnsRecord> call() throws Exception {
+                Answer<Set<DnsRecord>> value = await(lookup);
+                cache(services, name, value);
+                return value.value;
+            }
+        };
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Drops all cached answers, e.g. when they are known to be stale.
+     */
+    public void clear() {
+        addresses.clear();
+        services.clear();
+    }
+
+    public void close() {
+        ExecutorService e;
+        DirContext ctx;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            e = executor;
+            executor = null;
+            ctx = context;
+            context = null;
+        }
+        clear();
+        if (e != null) {
+            e.shutdownNow();
+        }
+        if (client != null) {
+            client.close();
+        }
+        if (ctx != null) {
+            try {
+                ctx.close();
+            } catch (NamingException ignore) {
+            }
+        }
+    }
+
+    private Answer<Set<String>> lookupAddresses(String name) throws Exception {
+        if (client != null) {
+            return toAddresses(name, await(client.query(name, DnsClient.TYPE_A)));
+        }
+        Set<String> value = new LinkedHashSet<String>();
+        try {
+            for (String address : getAttributes(name, "A")) {
+                value.add(address);
+            }
+        } catch (NameNotFoundException e) {
+            // not a fully qualified name, or only known to the system resolver (e.g. /etc/hosts)
+        }
+        return value.isEmpty() ? lookupSystemAddresses(name) : newAnswer(value, -1);
+    }
+
+    private Answer<Set<String>> toAddresses(String name, DnsAnswer answer) {
+        if (answer.getAddresses().isEmpty()) {
+            return lookupSystemAddresses(name);
+        }
+        return newAnswer(new LinkedHashSet<String>(answer.getAddresses()), answer.getTtl());
+    }
+
+    private Answer<Set<String>> lookupSystemAddresses(String name) {
+        Set<String> value = new LinkedHashSet<String>();
+        try {
+            for (InetAddress inetAddress : InetAddress.getAllByName(name)) {
+                value.add(inetAddress.getHostAddress());
+            }
+        } catch (UnknownHostException e) {
+            // no addresses
+        }
+        return newAnswer(value, -1);
+    }
+
+    private Set<DnsRecord> lookupServiceRecords(String name) throws Exception {
+        Set<DnsRecord> value = new TreeSet<DnsRecord>();
+        try {
+            for (String record : getAttributes(name, "SRV")) {
+                value.add(DnsRecord.fromString(record));
+            }
+        } catch (NameNotFoundException e) {
+            // no records
+        }
+        return value;
+    }
+
+    private Set<String> getAttributes(String name, String type) throws NamingException {
+        Attributes attrs = getContext().getAttributes(name, new String[]{type});
+        Attribute attr = attrs != null ? attrs.get(type) : null;
+        if (attr == null) {
+            return Collections.emptySet();
+        }
+        Set<String> values = new LinkedHashSet<String>();
+        NamingEnumeration<?> all = attr.getAll();
+        while (all.hasMore()) {
+            values.add(String.valueOf(all.next()));
+        }
+        return values;
+    }
+
+    /**
+     * @param ttl the records' TTL in seconds, or -1 if unknown
+     */
+    private <T> Answer<Set<T>> newAnswer(Set<T> value, long ttl) {
+        long keep = ttl < 0 ? cacheTtl : Math.min(cacheTtl, ttl * 1000);
+        return new Answer<Set<T>>(Collections.unmodifiableSet(value), keep, System.nanoTime() + keep * 1000000L);
+    }
+
+    private <T extends Set<?>> void cache(ConcurrentMap<String, Answer<T>> answers, String name, Answer<T> answer) {
+        if (answer.keep > 0 && !answer.value.isEmpty()) {
+            answers.put(name, answer);
+        } else {
+            answers.remove(name);
+        }
+    }
+
+    private DirContext getContext() throws NamingException {
+        DirContext ctx = context;
+        if (ctx == null) {
+            synchronized (this) {
+                checkOpen();
+                ctx = context;
+                if (ctx == null) {
+                    // lookups don't change the context, so the one context serves concurrent lookups
+                    ctx = context = createContext();
+                }
+            }
+        }
+        return ctx;
+    }
+
+    static DirContext createContext() throws NamingException {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+        env.put(Context.PROVIDER_URL, "dns:");
+        env.put("com.sun.jndi.dns.recursion", "false");
+        // default is one second, but os skydns can be slow
+        env.put("com.sun.jndi.dns.timeout.initial", "2000");
+        // retries handled by DnsPing
+        //env.put("com.sun.jndi.dns.timeout.retries", "4");
+        return new InitialDirContext(env);
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        checkOpen();
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DnsResolver-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("DnsResolver closed");
+        }
+    }
+
+    private static final class Answer<T> {
+        private final T value;
+        private final long keep;
+        private final long expires;
+
+        private Answer(T value, long keep, long expires) {
+            this.value = value;
+            this.keep = keep;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expires >= 0;
+        }
+    }
+}
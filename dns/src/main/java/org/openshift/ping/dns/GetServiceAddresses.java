@@ -0,0 +1,26 @@
+package org.openshift.ping.dns;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The (host, port) of every target of the service's SRV records, from a single SRV query.
+ */
+public class GetServiceAddresses implements Callable<List<InetSocketAddress>> {
+
+    private final String _serviceName;
+    private final DnsResolver _resolver;
+
+    public GetServiceAddresses(String serviceName, DnsResolver resolver) {
+        _serviceName = serviceName;
+        _resolver = resolver;
+    }
+
+    @Override
+    public List<InetSocketAddress> call() throws Exception {
+        List<InetSocketAddress> serviceAddresses = _resolver.getServiceAddresses("_tcp." + _serviceName);
+        return serviceAddresses.isEmpty() ? null : serviceAddresses;
+    }
+
+}
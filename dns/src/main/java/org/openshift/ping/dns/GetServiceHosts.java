@@ -8,13 +8,26 @@ import java.util.concurrent.Callable;
 public class GetServiceHosts implements Callable<Set<String>> {
 
     private final String _serviceName;
+    private final DnsResolver _resolver;
 
     public GetServiceHosts(String serviceName) {
+        this(serviceName, null);
+    }
+
+    /**
+     * @param resolver the resolver whose cached A answer to use, or null to go through InetAddress
+     */
+    public GetServiceHosts(String serviceName, DnsResolver resolver) {
         _serviceName = serviceName;
+        _resolver = resolver;
     }
 
     @Override
     public Set<String> call() throws Exception {
+        if (_resolver != null) {
+            Set<String> serviceHosts = _resolver.getAddresses(_serviceName);
+            return serviceHosts.isEmpty() ? null : serviceHosts;
+        }
         Set<String> serviceHosts = null;
         InetAddress[] inetAddresses = InetAddress.getAllByName(_serviceName);
         for (InetAddress inetAddress : inetAddresses) {
@@ -1,22 +1,23 @@
 package org.openshift.ping.dns;
 
-import java.util.Hashtable;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
 
-import javax.naming.Context;
-import javax.naming.NamingEnumeration;
-import javax.naming.directory.Attributes;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
-
 public class GetServicePort implements Callable<Integer> {
 
     private final String _serviceName;
+    private final DnsResolver _resolver;
 
     public GetServicePort(String serviceName) {
+        this(serviceName, null);
+    }
+
+    /**
+     * @param resolver the resolver whose cached SRV answer to use, or null to look the records up afresh
+     */
+    public GetServicePort(String serviceName, DnsResolver resolver) {
         _serviceName = serviceName;
+        _resolver = resolver;
     }
 
     @Override
@@ -35,26 +36,16 @@ public class GetServicePort implements Callable<Integer> {
     }
 
     private Set<DnsRecord> getDnsRecords(String serviceName) throws Exception {
-        Set<DnsRecord> dnsRecords = new TreeSet<DnsRecord>();
-        Hashtable<String, String> env = new Hashtable<String, String>();
-        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
-        env.put(Context.PROVIDER_URL, "dns:");
-        env.put("com.sun.jndi.dns.recursion", "false");
-        // default is one second, but os skydns can be slow
-        env.put("com.sun.jndi.dns.timeout.initial", "2000");
-        // retries handled by DnsPing
-        //env.put("com.sun.jndi.dns.timeout.retries", "4");
-        DirContext ctx = new InitialDirContext(env);
-        Attributes attrs = ctx.getAttributes("_tcp." + serviceName, new String[]{"SRV"});
-        if (attrs == null) {
-            return dnsRecords;
+        if (_resolver != null) {
+            // the A records are looked up alongside, so the first discovery round finds them cached
+            return _resolver.resolve(serviceName);
         }
-        NamingEnumeration<?> servers = attrs.get("SRV").getAll();
-        while (servers.hasMore()) {
-            DnsRecord record = DnsRecord.fromString((String)servers.next());
-            dnsRecords.add(record);
+        DnsResolver resolver = new DnsResolver(0);
+        try {
+            return resolver.getServiceRecords("_tcp." + serviceName);
+        } finally {
+            resolver.close();
         }
-        return dnsRecords;
     }
 
 }
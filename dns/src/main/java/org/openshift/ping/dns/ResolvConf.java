@@ -0,0 +1,215 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The parts of resolv.conf a stub resolver needs: the name servers, the search domains with the ndots threshold,
+ * and the timeout and attempts options. Anything else in the file is ignored.
+ */
+public class ResolvConf {
+    private static final Logger log = Logger.getLogger(ResolvConf.class.getName());
+
+    public static final String DEFAULT_PATH = "/etc/resolv.conf";
+    public static final int DNS_PORT = 53;
+
+    private final List<InetSocketAddress> nameservers;
+    private final List<String> search;
+    private final int ndots;
+    private final long timeout;
+    private final int attempts;
+
+    /**
+     * @param timeout how long to wait for one name server to answer, in milliseconds
+     * @param attempts how many times to go through all the name servers
+     */
+    public ResolvConf(List<InetSocketAddress> nameservers, List<String> search, int ndots, long timeout, int attempts) {
+        this.nameservers = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(nameservers));
+        this.search = Collections.unmodifiableList(new ArrayList<String>(search));
+        this.ndots = Math.max(0, ndots);
+        this.timeout = Math.max(1, timeout);
+        this.attempts = Math.max(1, attempts);
+    }
+
+    /**
+     * @return the system's configuration, or the defaults (a name server on the local host, no search domains)
+     *         if {@link #DEFAULT_PATH} can't be read
+     */
+    public static ResolvConf load() {
+        File file = new File(DEFAULT_PATH);
+        if (file.canRead()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1)) {
+                return parse(reader);
+            } catch (IOException e) {
+                if (log.isLoggable(Level.WARNING)) {
+                    log.log(Level.WARNING, String.format("Could not read [%s]; using the defaults", DEFAULT_PATH), e);
+                }
+            }
+        }
+        return parse(new StringReader(""));
+    }
+
+    public static ResolvConf parse(Reader reader) {
+        List<InetSocketAddress> nameservers = new ArrayList<InetSocketAddress>();
+        List<String> search = new ArrayList<String>();
+        int ndots = 1;
+        long timeout = 5000;
+        int attempts = 2;
+        try {
+            BufferedReader lines = new BufferedReader(reader);
+            String line;
+            while ((line = lines.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 2 || fields[0].startsWith("#") || fields[0].startsWith(";")) {
+                    continue;
+                }
+                switch (fields[0]) {
+                    case "nameserver":
+                        // numeric addresses only, so reading the configuration doesn't itself go to DNS
+                        if (isNumeric(fields[1])) {
+                            try {
+                                nameservers.add(new InetSocketAddress(InetAddress.getByName(fields[1]), DNS_PORT));
+                            } catch (IOException e) {
+                                if (log.isLoggable(Level.FINE)) {
+                                    log.fine(String.format("Ignoring nameserver [%s]", fields[1]));
+                                }
+                            }
+                        }
+                        break;
+                    case "domain":
+                    case "search":
+                        // the last of them wins
+                        search.clear();
+                        for (int i = 1; i < fields.length; i++) {
+                            String domain = trimDot(fields[i]);
+                            if (!domain.isEmpty()) {
+                                search.add(domain);
+                            }
+                        }
+                        break;
+                    case "options":
+                        for (int i = 1; i < fields.length; i++) {
+                            String option = fields[i];
+                            if (option.startsWith("ndots:")) {
+                                ndots = Math.min(15, parseInt(option, ndots));
+                            } else if (option.startsWith("timeout:")) {
+                                timeout = Math.min(30, parseInt(option, (int) (timeout / 1000))) * 1000L;
+                            } else if (option.startsWith("attempts:")) {
+                                attempts = Math.min(5, parseInt(option, attempts));
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (log.isLoggable(Level.WARNING)) {
+                log.log(Level.WARNING, "Could not parse the resolver configuration; using what was read so far", e);
+            }
+        }
+        if (nameservers.isEmpty()) {
+            nameservers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), DNS_PORT));
+        }
+        return new ResolvConf(nameservers, search, ndots, timeout, attempts);
+    }
+
+    private static int parseInt(String option, int def) {
+        try {
+            return Integer.parseInt(option.substring(option.indexOf(':') + 1));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static boolean isNumeric(String address) {
+        return address.indexOf(':') >= 0 || address.matches("[0-9.]+");
+    }
+
+    private static String trimDot(String name) {
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    public List<InetSocketAddress> getNameservers() {
+        return nameservers;
+    }
+
+    public List<String> getSearch() {
+        return search;
+    }
+
+    public int getNdots() {
+        return ndots;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the names to query for the name, in order, as the system resolver would try them
+     */
+    public List<String> getCandidates(String name) {
+        List<String> candidates = new ArrayList<String>();
+        if (name.endsWith(".")) {
+            // fully qualified
+            candidates.add(trimDot(name));
+            return candidates;
+        }
+        int dots = 0;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '.') {
+                dots++;
+            }
+        }
+        if (dots >= ndots) {
+            candidates.add(name);
+        }
+        for (String domain : search) {
+            candidates.add(name + "." + domain);
+        }
+        if (dots < ndots) {
+            candidates.add(name);
+        }
+        return candidates;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[nameservers=%s, search=%s, ndots=%s, timeout=%s, attempts=%s]",
+                getClass().getSimpleName(), nameservers, search, ndots, timeout, attempts);
+    }
+}
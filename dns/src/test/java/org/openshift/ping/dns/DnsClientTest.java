@@ -0,0 +1,410 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link DnsClient} lookups against a stub DNS server on the loopback interface.
+ */
+public class DnsClientTest {
+
+    private StubDnsServer server;
+    private DnsClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubDnsServer();
+        client = new DnsClient(server.getConf(Collections.<String>emptyList(), 1000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+        server.checkErrors();
+    }
+
+    @Test
+    public void testAddresses() throws Exception {
+        server.add("ping.test.local", DnsClient.TYPE_A, a("10.1.0.1", 30), a("10.1.0.2", 10));
+        DnsAnswer answer = client.query("ping.test.local", DnsClient.TYPE_A).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("10.1.0.1", "10.1.0.2"), answer.getAddresses());
+        assertEquals(10, answer.getTtl());
+        assertEquals("ping.test.local", answer.getName());
+    }
+
+    @Test
+    public void testServiceRecords() throws Exception {
+        server.add("_tcp.ping.test.local", DnsClient.TYPE_SRV,
+                srv(10, 50, 8888, "pod-1.ping.test.local", 30), srv(10, 50, 8889, "pod-2.ping.test.local", 30));
+        server.addAdditional("_tcp.ping.test.local", "pod-1.ping.test.local", "10.1.0.1");
+        DnsAnswer answer = client.query("_tcp.ping.test.local", DnsClient.TYPE_SRV).get(5, TimeUnit.SECONDS);
+        List<DnsRecord> records = answer.getServiceRecords();
+        assertEquals(2, records.size());
+        assertEquals(8888, records.get(0).getPort());
+        assertEquals("pod-1.ping.test.local", records.get(0).getHost());
+        assertEquals(8889, records.get(1).getPort());
+        assertEquals(Collections.singletonList("10.1.0.1"), answer.getAdditionalAddresses().get("pod-1.ping.test.local"));
+    }
+
+    @Test
+    public void testSearchDomains() throws Exception {
+        client.close();
+        client = new DnsClient(server.getConf(Arrays.asList("other.local", "svc.test.local"), 1000));
+        server.add("ping.svc.test.local", DnsClient.TYPE_A, a("10.1.0.3", 30));
+        DnsAnswer answer = client.query("ping", DnsClient.TYPE_A).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("10.1.0.3"), answer.getAddresses());
+        assertEquals("ping.svc.test.local", answer.getName());
+        // the first search domain didn't know the name
+        assertEquals(2, server.getQueries());
+
+        DnsAnswer none = client.query("nothing", DnsClient.TYPE_A).get(5, TimeUnit.SECONDS);
+        assertTrue(none.isEmpty());
+        assertEquals(0, none.getTtl());
+    }
+
+    @Test
+    public void testTruncatedAnswerOverTcp() throws Exception {
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 100; i++) {
+            records.add(srv(10, 50, 8888, "pod-" + i + ".ping.test.local", 30));
+        }
+        server.add("_tcp.ping.test.local", DnsClient.TYPE_SRV, records.toArray(new Record[records.size()]));
+        server.truncate("_tcp.ping.test.local");
+        DnsAnswer answer = client.query("_tcp.ping.test.local", DnsClient.TYPE_SRV).get(5, TimeUnit.SECONDS);
+        assertEquals(100, answer.getServiceRecords().size());
+        assertEquals(1, server.getTcpQueries());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        client.close();
+        client = new DnsClient(server.getConf(Collections.<String>emptyList(), 100));
+        server.drop("slow.test.local");
+        Future<DnsAnswer> answer = client.query("slow.test.local", DnsClient.TYPE_A);
+        try {
+            answer.get(5, TimeUnit.SECONDS);
+            fail("Should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        // once per attempt
+        assertEquals(2, server.getQueries());
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        List<Future<DnsAnswer>> answers = new ArrayList<Future<DnsAnswer>>();
+        for (int i = 0; i < 50; i++) {
+            server.add("pod-" + i + ".test.local", DnsClient.TYPE_A, a("10.2.0." + i, 30));
+            answers.add(client.query("pod-" + i + ".test.local", DnsClient.TYPE_A));
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Collections.singletonList("10.2.0." + i), answers.get(i).get(5, TimeUnit.SECONDS).getAddresses());
+        }
+    }
+
+    @Test
+    public void testResolverKeepsAnswersForTheirTtl() throws Exception {
+        server.add("ping.test.local", DnsClient.TYPE_A, a("10.1.0.1", 60));
+        server.add("_tcp.ping.test.local", DnsClient.TYPE_SRV, srv(10, 50, 8888, "ping.test.local", 0));
+        DnsResolver resolver = new DnsResolver(30000, client);
+        try {
+            Set<DnsRecord> records = resolver.resolve("ping.test.local");
+            assertEquals(8888, records.iterator().next().getPort());
+            assertEquals(2, server.getQueries());
+            // the A answer is cached, the SRV answer (TTL 0) isn't
+            assertEquals(Collections.singleton("10.1.0.1"), resolver.getAddresses("ping.test.local"));
+            resolver.getServiceRecords("_tcp.ping.test.local");
+            assertEquals(3, server.getQueries());
+        } finally {
+            resolver.close();
+            client = null;
+        }
+    }
+
+    @Test
+    public void testResolverServiceAddresses() throws Exception {
+        server.add("_tcp.ping.test.local", DnsClient.TYPE_SRV,
+                srv(10, 50, 8888, "pod-1.ping.test.local", 30), srv(10, 50, 8889, "pod-2.ping.test.local", 30),
+                srv(10, 50, 8890, "gone.ping.test.local", 30));
+        server.addAdditional("_tcp.ping.test.local", "pod-1.ping.test.local", "10.1.0.1");
+        server.add("pod-2.ping.test.local", DnsClient.TYPE_A, a("10.1.0.2", 30));
+        DnsResolver resolver = new DnsResolver(30000, client);
+        try {
+            List<InetSocketAddress> addresses = resolver.getServiceAddresses("_tcp.ping.test.local");
+            assertEquals(Arrays.asList(new InetSocketAddress("10.1.0.1", 8888), new InetSocketAddress("10.1.0.2", 8889)), addresses);
+            // the SRV query, and one A query each for the targets the server didn't give the addresses of
+            assertEquals(3, server.getQueries());
+        } finally {
+            resolver.close();
+            client = null;
+        }
+    }
+
+    private static Record a(String address, long ttl) throws IOException {
+        return new Record(DnsClient.TYPE_A, ttl, InetAddress.getByName(address).getAddress());
+    }
+
+    private static Record srv(int priority, int weight, int port, String target, long ttl) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(priority);
+        out.writeShort(weight);
+        out.writeShort(port);
+        writeName(out, target);
+        return new Record(DnsClient.TYPE_SRV, ttl, bytes.toByteArray());
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        for (String label : name.split("\\.")) {
+            out.writeByte(label.length());
+            out.write(label.getBytes(StandardCharsets.US_ASCII));
+        }
+        out.writeByte(0);
+    }
+
+    private static class Record {
+        private final int type;
+        private final long ttl;
+        private final byte[] data;
+
+        private Record(int type, long ttl, byte[] data) {
+            this.type = type;
+            this.ttl = ttl;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Answers from a fixed set of records over UDP and TCP, on the same port; unknown names get NXDOMAIN. Errors
+     * while serving are kept for {@link #checkErrors()}, rather than leaving the test to time out.
+     */
+    private static class StubDnsServer {
+        private final DatagramSocket udp;
+        private final ServerSocket tcp;
+        private final Map<String, List<Record>> records = new ConcurrentHashMap<String, List<Record>>();
+        private final Map<String, Map<String, String>> additional = new ConcurrentHashMap<String, Map<String, String>>();
+        private final Set<String> truncated = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Set<String> dropped = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final AtomicInteger queries = new AtomicInteger();
+        private final AtomicInteger tcpQueries = new AtomicInteger();
+        private final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+
+        private StubDnsServer() throws IOException {
+            udp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            tcp = new ServerSocket(udp.getLocalPort(), 10, InetAddress.getLoopbackAddress());
+            Thread udpThread = new Thread(new Runnable() {
+                public void run() {
+                    serveUdp();
+                }
+            }, "StubDnsServer-udp");
+            udpThread.setDaemon(true);
+            udpThread.start();
+            Thread tcpThread = new Thread(new Runnable() {
+                public void run() {
+                    serveTcp();
+                }
+            }, "StubDnsServer-tcp");
+            tcpThread.setDaemon(true);
+            tcpThread.start();
+        }
+
+        private ResolvConf getConf(List<String> search, long timeout) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), udp.getLocalPort());
+            return new ResolvConf(Collections.singletonList(address), search, 1, timeout, 2);
+        }
+
+        private void add(String name, int type, Record... answers) {
+            records.put(name + "/" + type, Arrays.asList(answers));
+        }
+
+        private void addAdditional(String name, String host, String address) {
+            additional.put(name, Collections.singletonMap(host, address));
+        }
+
+        private void truncate(String name) {
+            truncated.add(name);
+        }
+
+        private void drop(String name) {
+            dropped.add(name);
+        }
+
+        private int getQueries() {
+            return queries.get();
+        }
+
+        private int getTcpQueries() {
+            return tcpQueries.get();
+        }
+
+        private void close() throws IOException {
+            udp.close();
+            tcp.close();
+        }
+
+        private void checkErrors() {
+            if (!errors.isEmpty()) {
+                AssertionError error = new AssertionError("The stub DNS server failed: " + errors);
+                error.initCause(errors.get(0));
+                throw error;
+            }
+        }
+
+        private void serveUdp() {
+            byte[] buffer = new byte[512];
+            while (!udp.isClosed()) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    udp.receive(packet);
+                    byte[] response = answer(Arrays.copyOf(packet.getData(), packet.getLength()), false);
+                    if (response != null) {
+                        udp.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                    }
+                } catch (SocketException e) {
+                    if (!udp.isClosed()) {
+                        errors.add(e);
+                    }
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    errors.add(e);
+                }
+            }
+        }
+
+        private void serveTcp() {
+            while (!tcp.isClosed()) {
+                try (Socket socket = tcp.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    byte[] query = new byte[in.readUnsignedShort()];
+                    in.readFully(query);
+                    tcpQueries.incrementAndGet();
+                    byte[] response = answer(query, true);
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeShort(response.length);
+                    out.write(response);
+                    out.flush();
+                } catch (SocketException e) {
+                    if (!tcp.isClosed()) {
+                        errors.add(e);
+                    }
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    errors.add(e);
+                }
+            }
+        }
+
+        private byte[] answer(byte[] query, boolean overTcp) throws IOException {
+            ByteBuffer in = ByteBuffer.wrap(query);
+            int id = in.getShort(0) & 0xffff;
+            in.position(12);
+            StringBuilder name = new StringBuilder();
+            int length;
+            while ((length = in.get() & 0xff) != 0) {
+                byte[] label = new byte[length];
+                in.get(label);
+                name.append(name.length() > 0 ? "." : "").append(new String(label, StandardCharsets.US_ASCII));
+            }
+            int type = in.getShort() & 0xffff;
+            // the class
+            in.getShort();
+            String qname = name.toString();
+            if (!overTcp) {
+                queries.incrementAndGet();
+            }
+            if (dropped.contains(qname)) {
+                return null;
+            }
+            List<Record> answers = records.get(qname + "/" + type);
+            boolean truncate = !overTcp && truncated.contains(qname);
+            Map<String, String> extra = additional.get(qname);
+            int rcode = answers == null && !records.containsKey(qname + "/" + (type == DnsClient.TYPE_A ? DnsClient.TYPE_SRV : DnsClient.TYPE_A)) ? 3 : 0;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(id);
+            out.writeShort(0x8180 | (truncate ? 0x0200 : 0) | rcode);
+            out.writeShort(1);
+            out.writeShort(truncate || answers == null ? 0 : answers.size());
+            out.writeShort(0);
+            out.writeShort(truncate || extra == null ? 0 : extra.size());
+            // the question, as asked
+            out.write(query, 12, in.position() - 12);
+            if (!truncate && answers != null) {
+                for (Record record : answers) {
+                    // a pointer to the name in the question
+                    out.writeShort(0xc00c);
+                    out.writeShort(record.type);
+                    out.writeShort(1);
+                    out.writeInt((int) record.ttl);
+                    out.writeShort(record.data.length);
+                    out.write(record.data);
+                }
+                if (extra != null) {
+                    for (Map.Entry<String, String> entry : extra.entrySet()) {
+                        writeName(out, entry.getKey());
+                        out.writeShort(DnsClient.TYPE_A);
+                        out.writeShort(1);
+                        out.writeInt(30);
+                        out.writeShort(4);
+                        out.write(InetAddress.getByName(entry.getValue()).getAddress());
+                    }
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify what {@link DnsResolver} caches, and for how long, against a {@link DnsClient} that answers from memory.
+ */
+public class DnsResolverTest {
+
+    private FakeDnsClient client;
+    private DnsResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        client = new FakeDnsClient();
+        resolver = new DnsResolver(30000, client);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resolver.close();
+    }
+
+    @Test
+    public void testCachedWithinTtl() throws Exception {
+        client.answer("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.1"));
+        assertEquals(Collections.singleton("10.1.0.1"), resolver.getAddresses("ping.test.local"));
+        client.answer("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.2"));
+        assertEquals(Collections.singleton("10.1.0.1"), resolver.getAddresses("ping.test.local"));
+        assertEquals(1, client.getQueries().size());
+    }
+
+    @Test
+    public void testRefreshedAfterExpiry() throws Exception {
+        // shares the client, which the new resolver closes
+        resolver = new DnsResolver(50, client);
+        client.answer("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.1"));
+        assertEquals(Collections.singleton("10.1.0.1"), resolver.getAddresses("ping.test.local"));
+        client.answer("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.2"));
+        // kept for the cacheTtl, which is below the records' TTL
+        Thread.sleep(100);
+        assertEquals(Collections.singleton("10.1.0.2"), resolver.getAddresses("ping.test.local"));
+        assertEquals(2, client.getQueries().size());
+    }
+
+    @Test
+    public void testRecordTtlBelowCacheTtl() throws Exception {
+        client.answer("_tcp.ping.test.local", DnsClient.TYPE_SRV, services(0, new DnsRecord(10, 50, 8888, "ping.test.local")));
+        resolver.getServiceRecords("_tcp.ping.test.local");
+        resolver.getServiceRecords("_tcp.ping.test.local");
+        assertEquals(2, client.getQueries().size());
+    }
+
+    @Test
+    public void testEmptyAnswerNotCached() throws Exception {
+        client.answer("_tcp.ping.test.local", DnsClient.TYPE_SRV, services(60));
+        assertTrue(resolver.getServiceRecords("_tcp.ping.test.local").isEmpty());
+        client.answer("_tcp.ping.test.local", DnsClient.TYPE_SRV, services(60, new DnsRecord(10, 50, 8888, "ping.test.local")));
+        assertEquals(1, resolver.getServiceRecords("_tcp.ping.test.local").size());
+        assertEquals(2, client.getQueries().size());
+    }
+
+    @Test
+    public void testFailedLookupNotCached() throws Exception {
+        client.fail("ping.test.local", DnsClient.TYPE_A, new IOException("timed out"));
+        try {
+            resolver.getAddresses("ping.test.local");
+            fail("Expected the lookup to fail");
+        } catch (IOException expected) {
+        }
+        client.answer("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.1"));
+        assertEquals(Collections.singleton("10.1.0.1"), resolver.getAddresses("ping.test.local"));
+        assertEquals(2, client.getQueries().size());
+    }
+
+    @Test
+    public void testResolveLooksUpConcurrently() throws Exception {
+        client.hold();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Set<DnsRecord>> records = executor.submit(new Callable<Set<DnsRecord>>() {
+                public Set<DnsRecord> call() throws Exception {
+                    return resolver.resolve("ping.test.local");
+                }
+            });
+            // both queries are out before either is answered
+            client.awaitQueries(2);
+            assertEquals(Arrays.asList("_tcp.ping.test.local/" + DnsClient.TYPE_SRV, "ping.test.local/" + DnsClient.TYPE_A),
+                    client.getQueries());
+            client.release("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.1"));
+            client.release("_tcp.ping.test.local", DnsClient.TYPE_SRV, services(60, new DnsRecord(10, 50, 8888, "ping.test.local")));
+            assertEquals(8888, records.get(5, TimeUnit.SECONDS).iterator().next().getPort());
+        } finally {
+            executor.shutdownNow();
+        }
+        // both answers are cached
+        resolver.getAddresses("ping.test.local");
+        resolver.getServiceRecords("_tcp.ping.test.local");
+        assertEquals(2, client.getQueries().size());
+    }
+
+    @Test
+    public void testServiceAddressesFromAdditionalSection() throws Exception {
+        client.answer("_tcp.ping.test.local", DnsClient.TYPE_SRV, new DnsAnswer("_tcp.ping.test.local",
+                Collections.<String>emptyList(), Collections.singletonList(new DnsRecord(10, 50, 8888, "pod-1.ping.test.local")),
+                Collections.singletonMap("pod-1.ping.test.local", Collections.singletonList("10.1.0.1")), 60));
+        List<InetSocketAddress> addresses = resolver.getServiceAddresses("_tcp.ping.test.local");
+        assertEquals(Collections.singletonList(new InetSocketAddress(InetAddress.getByName("10.1.0.1"), 8888)), addresses);
+        assertEquals(1, client.getQueries().size());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        client.answer("ping.test.local", DnsClient.TYPE_A, addresses(60, "10.1.0.1"));
+        resolver.getAddresses("ping.test.local");
+        resolver.close();
+        try {
+            resolver.getAddresses("ping.test.local");
+            fail("Expected the closed resolver to refuse the lookup");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            resolver.resolve("ping.test.local");
+            fail("Expected the closed resolver to refuse the lookup");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, client.getQueries().size());
+    }
+
+    @Test
+    public void testClosedWithoutClient() throws Exception {
+        DnsResolver jndi = new DnsResolver(30000);
+        jndi.close();
+        try {
+            jndi.getServiceRecords("_tcp.ping.test.local");
+            fail("Expected the closed resolver to refuse the lookup");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static DnsAnswer addresses(long ttl, String... addresses) {
+        return new DnsAnswer("", Arrays.asList(addresses), Collections.<DnsRecord>emptyList(),
+                Collections.<String, List<String>>emptyMap(), ttl);
+    }
+
+    private static DnsAnswer services(long ttl, DnsRecord... records) {
+        return new DnsAnswer("", Collections.<String>emptyList(), Arrays.asList(records),
+                Collections.<String, List<String>>emptyMap(), ttl);
+    }
+
+    /**
+     * Answers from canned answers straight away or, once held, when the test releases them.
+     */
+    private static class FakeDnsClient extends DnsClient {
+        private final Map<String, Object> answers = new ConcurrentHashMap<String, Object>();
+        private final Map<String, Reply> held = new ConcurrentHashMap<String, Reply>();
+        private final List<String> queries = new CopyOnWriteArrayList<String>();
+        private volatile boolean hold;
+
+        private FakeDnsClient() throws IOException {
+            super(new ResolvConf(Collections.singletonList(new InetSocketAddress(InetAddress.getLoopbackAddress(), 53)),
+                    Collections.<String>emptyList(), 1, 1000, 1));
+        }
+
+        private void answer(String name, int type, DnsAnswer answer) {
+            answers.put(name + "/" + type, answer);
+        }
+
+        private void fail(String name, int type, Exception e) {
+            answers.put(name + "/" + type, e);
+        }
+
+        private void hold() {
+            hold = true;
+        }
+
+        private void release(String name, int type, DnsAnswer answer) {
+            held.remove(name + "/" + type).answer(answer);
+        }
+
+        private List<String> getQueries() {
+            return queries;
+        }
+
+        private void awaitQueries(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (queries.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, queries.size());
+        }
+
+        @Override
+        public Future<DnsAnswer> query(String name, int type) {
+            String key = name + "/" + type;
+            queries.add(key);
+            Reply reply = new Reply();
+            if (hold) {
+                held.put(key, reply);
+                return reply;
+            }
+            Object answer = answers.get(key);
+            if (answer instanceof Exception) {
+                reply.fail((Exception) answer);
+            } else if (answer != null) {
+                reply.answer((DnsAnswer) answer);
+            } else {
+                reply.answer(services(0));
+            }
+            return reply;
+        }
+    }
+
+    private static class Reply extends FutureTask<DnsAnswer> {
+        private Reply() {
+            super(new Callable<DnsAnswer>() {
+                public DnsAnswer call() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+
+        private void answer(DnsAnswer answer) {
+            set(answer);
+        }
+
+        private void fail(Exception e) {
+            setException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.dns;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Verify the {@link ResolvConf} parsing and search list.
+ */
+public class ResolvConfTest {
+
+    @Test
+    public void testParse() throws Exception {
+        ResolvConf conf = ResolvConf.parse(new StringReader(
+                "# generated\n" +
+                "nameserver 172.30.0.10\n" +
+                "nameserver resolver.example.com\n" +
+                "domain example.com\n" +
+                "search myproject.svc.cluster.local svc.cluster.local cluster.local.\n" +
+                "options ndots:5 timeout:3 attempts:9 rotate\n"));
+        assertEquals(Collections.singletonList(new InetSocketAddress(InetAddress.getByName("172.30.0.10"), 53)), conf.getNameservers());
+        assertEquals(Arrays.asList("myproject.svc.cluster.local", "svc.cluster.local", "cluster.local"), conf.getSearch());
+        assertEquals(5, conf.getNdots());
+        assertEquals(3000, conf.getTimeout());
+        assertEquals(5, conf.getAttempts());
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        ResolvConf conf = ResolvConf.parse(new StringReader(""));
+        assertEquals(Collections.singletonList(new InetSocketAddress(InetAddress.getLoopbackAddress(), 53)), conf.getNameservers());
+        assertEquals(Collections.emptyList(), conf.getSearch());
+        assertEquals(1, conf.getNdots());
+        assertEquals(5000, conf.getTimeout());
+        assertEquals(2, conf.getAttempts());
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        ResolvConf conf = ResolvConf.parse(new StringReader("search ns.svc.local svc.local\noptions ndots:2\n"));
+        assertEquals(Arrays.asList("ping.ns.svc.local", "ping.svc.local", "ping"), conf.getCandidates("ping"));
+        assertEquals(Arrays.asList("ping.other.ns.svc.local", "ping.other.svc.local", "ping.other"), conf.getCandidates("ping.other"));
+        assertEquals(Arrays.asList("a.b.c", "a.b.c.ns.svc.local", "a.b.c.svc.local"), conf.getCandidates("a.b.c"));
+        assertEquals(Collections.singletonList("ping.ns.svc.local"), conf.getCandidates("ping.ns.svc.local."));
+    }
+}
@@ -27,7 +27,8 @@ import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.jboss.dmr.ModelNode;
+import org.openshift.ping.common.DiscoveryMetrics;
+import org.openshift.ping.common.RetryPolicy;
 import org.openshift.ping.common.stream.StreamProvider;
 
 /**
@@ -36,23 +37,28 @@ import org.openshift.ping.common.stream.StreamProvider;
 public class Client {
     private static final Logger log = Logger.getLogger(Client.class.getName());
 
+    // let the master drop pods that are not running, rather than sending them over the wire just for us to ignore
+    private static final String RUNNING_FIELD_SELECTOR = "status.phase=Running";
+
     private final String masterUrl;
     private final Map<String, String> headers;
     private final int connectTimeout;
     private final int readTimeout;
-    private final int operationAttempts;
-    private final long operationSleep;
+    private final RetryPolicy retryPolicy;
     private final StreamProvider streamProvider;
+    private final int pageSize;
+    private final DiscoveryMetrics metrics;
     private final String info;
 
-    public Client(String masterUrl, Map<String, String> headers, int connectTimeout, int readTimeout, int operationAttempts, long operationSleep, StreamProvider streamProvider) {
+    public Client(String masterUrl, Map<String, String> headers, int connectTimeout, int readTimeout, RetryPolicy retryPolicy, StreamProvider streamProvider, int pageSize, DiscoveryMetrics metrics) {
         this.masterUrl = masterUrl;
         this.headers = headers;
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
-        this.operationAttempts = operationAttempts;
-        this.operationSleep = operationSleep;
+        this.retryPolicy = retryPolicy;
         this.streamProvider = streamProvider;
+        this.pageSize = pageSize;
+        this.metrics = metrics;
         Map<String, String> maskedHeaders = new TreeMap<String, String>();
         if (headers != null) {
             for (Map.Entry<String, String> header : headers.entrySet()) {
@@ -64,106 +70,139 @@ public class Client {
                 maskedHeaders.put(key, value);
             }
         }
-        this.info = String.format("%s[masterUrl=%s, headers=%s, connectTimeout=%s, readTimeout=%s, operationAttempts=%s, operationSleep=%s, streamProvider=%s]",
-                getClass().getSimpleName(), masterUrl, maskedHeaders, connectTimeout, readTimeout, operationAttempts, operationSleep, streamProvider);
+        this.info = String.format("%s[masterUrl=%s, headers=%s, connectTimeout=%s, readTimeout=%s, retryPolicy=%s, streamProvider=%s, pageSize=%s]",
+                getClass().getSimpleName(), masterUrl, maskedHeaders, connectTimeout, readTimeout, retryPolicy, streamProvider, pageSize);
+    }
+
+    public final String getMasterUrl() {
+        return masterUrl;
     }
 
     public final String info() {
         return info;
     }
 
-    protected ModelNode getNode(String op, String namespace, String labels) throws Exception {
+    protected String getUrl(String op, String namespace, String labels) {
         String url = masterUrl;
         if (namespace != null && namespace.length() > 0) {
             url = url + "/namespaces/" + urlencode(namespace);
         }
         url = url + "/" + op;
         if (labels != null && labels.length() > 0) {
-            url = url + "?labelSelector=" + urlencode(labels);
+            url = appendParam(url, "labelSelector", labels);
+        }
+        if ("pods".equals(op)) {
+            url = appendParam(url, "fieldSelector", RUNNING_FIELD_SELECTOR);
         }
-        try (InputStream stream = openStream(url, headers, connectTimeout, readTimeout, operationAttempts, operationSleep, streamProvider)) {
-            return ModelNode.fromJSONStream(stream);
+        return url;
+    }
+
+    /**
+     * @param continueToken the token returned with the previous page, or null for the first page
+     */
+    protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+        String url = getUrl(op, namespace, labels);
+        if (pageSize > 0) {
+            url = appendParam(url, "limit", String.valueOf(pageSize));
         }
+        if (continueToken != null) {
+            url = appendParam(url, "continue", continueToken);
+        }
+        return openStream(url, headers, connectTimeout, readTimeout, retryPolicy, streamProvider, metrics);
+    }
+
+    /**
+     * Opens a watch on the pods, starting after the given resourceVersion. The returned stream delivers one
+     * JSON encoded watch event per line, and is ended by the master after timeoutSeconds.
+     */
+    protected InputStream openWatchStream(String namespace, String labels, String resourceVersion, int timeoutSeconds) throws Exception {
+        String url = getUrl("pods", namespace, labels);
+        url = appendParam(url, "watch", "true");
+        if (resourceVersion != null) {
+            url = appendParam(url, "resourceVersion", resourceVersion);
+        }
+        url = appendParam(url, "timeoutSeconds", String.valueOf(timeoutSeconds));
+        // the master holds the response open until timeoutSeconds, so reads must be allowed to block at least that long
+        int watchReadTimeout = (int) Math.min(Integer.MAX_VALUE, (timeoutSeconds * 1000L) + readTimeout);
+        // retries are handled by the PodWatcher, which has to re-list anyway if the watch cannot be resumed
+        return openStream(url, headers, connectTimeout, watchReadTimeout, RetryPolicy.fixed(1, 0), streamProvider, metrics);
     }
 
     public final List<Pod> getPods(String namespace, String labels) throws Exception {
-        ModelNode root = getNode("pods", namespace, labels);
+        return listPods(namespace, labels).getPods();
+    }
+
+    /**
+     * Lists the running pods, a page at a time if a page size is set. Each page is parsed straight off the
+     * stream before the next one is requested, so a huge namespace is never held in memory as a whole.
+     * <p>
+     * This is the one place the master is asked for the pods, so it is where lookups and parsed pods are counted;
+     * reads served from the watch or the PodCache never get here.
+     */
+    public final PodList listPods(String namespace, String labels) throws Exception {
+        if (metrics == null) {
+            return readPods(namespace, labels);
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            PodList podList = readPods(namespace, labels);
+            metrics.recordPodsParsed(podList.getPods().size());
+            success = true;
+            return podList;
+        } finally {
+            metrics.recordLookup(System.nanoTime() - start, success);
+        }
+    }
+
+    private PodList readPods(String namespace, String labels) throws Exception {
         List<Pod> pods = new ArrayList<Pod>();
-        List<ModelNode> itemNodes = root.get("items").asList();
-        for (ModelNode itemNode : itemNodes) {
-            //ModelNode metadataNode = itemNode.get("metadata");
-            //String podName = metadataNode.get("name").asString(); // eap-app-1-43wra
-            //String podNamespace = metadataNode.get("namespace").asString(); // dward
-            ModelNode specNode = itemNode.get("spec");
-            //String serviceAccount = specNode.get("serviceAccount").asString(); // default
-            //String host = specNode.get("host").asString(); // ce-openshift-rhel-minion-1.lab.eng.brq.redhat.com
-            ModelNode statusNode = itemNode.get("status");
-            ModelNode phaseNode = statusNode.get("phase");
-            if (!phaseNode.isDefined() || !"Running".equals(phaseNode.asString())) {
-                continue;
-            }
-            /* We don't want to filter on the following as that could result in MERGEs instead of JOINs.
-            ModelNode conditionsNode = statusNode.get("conditions");
-            if (!conditionsNode.isDefined()) {
-                continue;
-            }
-            boolean ready = false;
-            List<ModelNode> conditions = conditionsNode.asList();
-            for (ModelNode condition : conditions) {
-                ModelNode conditionTypeNode = condition.get("type");
-                ModelNode conditionStatusNode = condition.get("status");
-                if (conditionTypeNode.isDefined() && "Ready".equals(conditionTypeNode.asString()) &&
-                        conditionStatusNode.isDefined() && "True".equals(conditionStatusNode.asString())) {
-                    ready = true;
-                    break;
-                }
-            }
-            if (!ready) {
-                continue;
-            }
-            */
-            //String hostIP = statusNode.get("hostIP").asString(); // 10.34.75.250
-            ModelNode podIPNode = statusNode.get("podIP");
-            if (!podIPNode.isDefined()) {
-                continue;
-            }
-            String podIP = podIPNode.asString(); // 10.1.0.169
-            Pod pod = new Pod(podIP);
-            ModelNode containersNode = specNode.get("containers");
-            if (!containersNode.isDefined()) {
-                continue;
-            }
-            List<ModelNode> containerNodes = containersNode.asList();
-            for (ModelNode containerNode : containerNodes) {
-                ModelNode portsNode = containerNode.get("ports");
-                if (!portsNode.isDefined()) {
-                    continue;
+        String resourceVersion = null;
+        String continueToken = null;
+        boolean restarted = false;
+        int pages = 0;
+        do {
+            PodList page;
+            try {
+                page = readPage(namespace, labels, continueToken);
+            } catch (Exception e) {
+                if (continueToken == null || restarted) {
+                    throw e;
                 }
-                //String containerName = containerNode.get("name").asString(); // eap-app
-                Container container = new Container();
-                List<ModelNode> portNodes = portsNode.asList();
-                for (ModelNode portNode : portNodes) {
-                    ModelNode portNameNode = portNode.get("name");
-                    if (!portNameNode.isDefined()) {
-                        continue;
-                    }
-                    String portName = portNameNode.asString(); // ping
-                    ModelNode containerPortNode = portNode.get("containerPort");
-                    if (!containerPortNode.isDefined()) {
-                        continue;
-                    }
-                    int containerPort = containerPortNode.asInt(); // 8888
-                    Port port = new Port(portName, containerPort);
-                    container.addPort(port);
+                // most likely the continue token expired (410 Gone); start over from the first page, once
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, String.format("Could not continue listing pods after page %s; starting over. Encountered [%s: %s]",
+                            pages, e.getClass().getName(), e.getMessage()));
                 }
-                pod.addContainer(container);
+                restarted = true;
+                pods.clear();
+                resourceVersion = null;
+                pages = 0;
+                page = readPage(namespace, labels, null);
             }
-            pods.add(pod);
-        }
+            pods.addAll(page.getPods());
+            // all pages are served from the same snapshot, so they share the first page's resourceVersion
+            if (resourceVersion == null) {
+                resourceVersion = page.getResourceVersion();
+            }
+            continueToken = page.getContinue();
+            pages++;
+        } while (continueToken != null);
+        PodList podList = new PodList(pods, resourceVersion);
         if (log.isLoggable(Level.FINE)) {
-            log.log(Level.FINE, String.format("getPods(%s, %s) = %s", namespace, labels, pods));
+            log.log(Level.FINE, String.format("listPods(%s, %s) = %s in %s page(s)", namespace, labels, podList, pages));
         }
-        return pods;
+        return podList;
+    }
+
+    private PodList readPage(String namespace, String labels, String continueToken) throws Exception {
+        try (JsonReader reader = new JsonReader(getStream("pods", namespace, labels, continueToken))) {
+            return PodParser.readPodList(reader);
+        }
+    }
+
+    private static String appendParam(String url, String name, String value) {
+        return url + (url.indexOf('?') < 0 ? '?' : '&') + name + "=" + urlencode(value);
     }
 
     public boolean accept(Context context) {
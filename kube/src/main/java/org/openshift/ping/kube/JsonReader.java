@@ -0,0 +1,380 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * A minimal pull parser for JSON, so we only materialize the few values we are interested in and skip over
+ * everything else straight off the stream. Consecutive top-level values (as sent by a watch) are allowed.
+ */
+final class JsonReader implements Closeable {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final Reader in;
+    private final char[] buffer = new char[4096];
+    private int pos = 0;
+    private int limit = 0;
+
+    private int[] stack = new int[32];
+    private int stackSize = 0;
+
+    private Token peeked;
+    // the text of a peeked NUMBER, BOOLEAN or NULL; names and strings are read (or skipped) on demand
+    private String peekedLiteral;
+    private final StringBuilder builder = new StringBuilder();
+
+    JsonReader(InputStream in) {
+        this(new InputStreamReader(in, UTF_8));
+    }
+
+    JsonReader(Reader in) {
+        this.in = in;
+        push(EMPTY_DOCUMENT);
+    }
+
+    Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace(true);
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                pos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace(true);
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace(true);
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace(true);
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace(true) != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace(false) == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                pos--;
+                break;
+            default:
+                throw new IllegalStateException("Reader is closed");
+        }
+        c = nextNonWhitespace(true);
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            default:
+                pos--;
+                peekedLiteral = readLiteral();
+                if ("true".equals(peekedLiteral) || "false".equals(peekedLiteral)) {
+                    return peeked = Token.BOOLEAN;
+                } else if ("null".equals(peekedLiteral)) {
+                    return peeked = Token.NULL;
+                } else if (peekedLiteral.length() > 0) {
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return readQuoted();
+    }
+
+    /**
+     * @return the next string, or the text of the next literal; null for a JSON null
+     */
+    String nextString() throws IOException {
+        Token token = peek();
+        peeked = null;
+        switch (token) {
+            case STRING:
+                return readQuoted();
+            case NUMBER:
+            case BOOLEAN:
+                return peekedLiteral;
+            case NULL:
+                return null;
+            default:
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    int nextInt() throws IOException {
+        String value = nextString();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            throw syntaxError("Expected an int but was " + value);
+        }
+    }
+
+    /**
+     * Skips the next value, including any nested objects or arrays, without materializing it.
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    stackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipQuoted();
+                    break;
+                case END_DOCUMENT:
+                    throw new EOFException("End of input");
+                default:
+                    // literal already consumed by peek()
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stackSize = 1;
+        stack[0] = 0;
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) == 0) {
+            // keep reading
+        }
+        if (read == -1) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private int nextNonWhitespace(boolean throwOnEof) throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        if (throwOnEof) {
+            throw new EOFException("End of input");
+        }
+        return -1;
+    }
+
+    private String readLiteral() throws IOException {
+        builder.setLength(0);
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            builder.append(c);
+            pos++;
+        }
+        return builder.toString();
+    }
+
+    private String readQuoted() throws IOException {
+        builder.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    builder.append(buffer, start, pos - start - 1);
+                    return builder.toString();
+                } else if (c == '\\') {
+                    builder.append(buffer, start, pos - start - 1);
+                    builder.append(readEscape());
+                    start = pos;
+                }
+            }
+            builder.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private void skipQuoted() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos++];
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private char readEscape() throws IOException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char escaped = buffer[pos++];
+        switch (escaped) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos == limit && !fill()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) + digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                // '"', '\\' and '/' stand for themselves
+                return escaped;
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(String.format("Malformed JSON: %s", message));
+    }
+}
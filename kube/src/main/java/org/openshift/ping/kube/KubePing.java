@@ -18,11 +18,10 @@ package org.openshift.ping.kube;
 
 import static org.openshift.ping.common.Utils.getSystemEnv;
 import static org.openshift.ping.common.Utils.getSystemEnvInt;
-import static org.openshift.ping.common.Utils.readFileToString;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,8 +29,12 @@ import java.util.Map;
 import org.jgroups.annotations.MBean;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.ClassConfigurator;
+import org.openshift.ping.common.CircuitBreaker;
 import org.openshift.ping.common.OpenshiftPing;
+import org.openshift.ping.common.stream.BaseStreamProvider;
+import org.openshift.ping.common.stream.BoundedStreamProvider;
 import org.openshift.ping.common.stream.CertificateStreamProvider;
+import org.openshift.ping.common.stream.Http2StreamProvider;
 import org.openshift.ping.common.stream.StreamProvider;
 import org.openshift.ping.common.stream.TokenStreamProvider;
 
@@ -93,8 +96,38 @@ public class KubePing extends OpenshiftPing {
     @Property
     private String saTokenFile = "/var/run/secrets/kubernetes.io/serviceaccount/token";
 
+    @Property
+    private int pageSize = 500;
+    private int _pageSize;
+
+    @Property
+    private int maxConnections = 10;
+    private int _maxConnections;
+
+    @Property
+    private boolean http2 = false;
+    private boolean _http2;
+
+    @Property
+    private long cacheTtl = 1000;
+    private long _cacheTtl;
+
+    @Property
+    private boolean watch = false;
+    private boolean _watch;
+
+    @Property
+    private int watchTimeout = 300;
+    private int _watchTimeout;
+
     private Client _client;
 
+    private BoundedStreamProvider _boundedProvider;
+
+    private Http2StreamProvider _http2Provider;
+
+    private volatile PodWatcher _watcher;
+
     private boolean _hasLoggedPermissionError = false;
 
     public KubePing() {
@@ -117,6 +150,10 @@ public class KubePing extends OpenshiftPing {
         this.namespace = namespace;
     }
 
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
     @Override
     protected boolean isClusteringEnabled() {
         return _namespace != null;
@@ -148,7 +185,8 @@ public class KubePing extends OpenshiftPing {
         String mHost;
         int mPort;
         Map<String, String> headers = new HashMap<String, String>();
-        StreamProvider streamProvider;
+        BaseStreamProvider baseStreamProvider;
+        String streamProviderKey;
         String cCertFile = getSystemEnv(new String[]{getSystemEnvName("CLIENT_CERT_FILE"), "KUBERNETES_CLIENT_CERTIFICATE_FILE"}, clientCertFile, true);
         if (cCertFile != null) {
             if (mProtocol == null) {
@@ -160,24 +198,40 @@ public class KubePing extends OpenshiftPing {
             String cKeyPassword = getSystemEnv(new String[]{getSystemEnvName("CLIENT_KEY_PASSWORD"), "KUBERNETES_CLIENT_KEY_PASSWORD"}, clientKeyPassword, false);
             String cKeyAlgo = getSystemEnv(new String[]{getSystemEnvName("CLIENT_KEY_ALGO"), "KUBERNETES_CLIENT_KEY_ALGO"}, clientKeyAlgo, true);
             String lCaCertFile = getSystemEnv(new String[]{getSystemEnvName("CA_CERT_FILE"), "KUBERNETES_CA_CERTIFICATE_FILE"}, caCertFile, true);
-            streamProvider = new CertificateStreamProvider(cCertFile, cKeyFile, cKeyPassword, cKeyAlgo, lCaCertFile);
+            baseStreamProvider = new CertificateStreamProvider(cCertFile, cKeyFile, cKeyPassword, cKeyAlgo, lCaCertFile);
+            streamProviderKey = String.format("cert:%s:%s:%s", cCertFile, cKeyFile, lCaCertFile);
         } else {
             if (mProtocol == null) {
                 mProtocol = "https";
             }
             mHost = getSystemEnv(new String[]{getSystemEnvName("MASTER_HOST"), "KUBERNETES_SERVICE_HOST"}, masterHost, true);
             mPort = getSystemEnvInt(new String[]{getSystemEnvName("MASTER_PORT"), "KUBERNETES_SERVICE_PORT"}, masterPort);
-            String saToken = readFileToString(getSystemEnv(getSystemEnvName("SA_TOKEN_FILE"), saTokenFile, true));
+            String lSaTokenFile = getSystemEnv(getSystemEnvName("SA_TOKEN_FILE"), saTokenFile, true);
             String lCaCertFile = getSystemEnv(new String[]{getSystemEnvName("CA_CERT_FILE"), "KUBERNETES_CA_CERTIFICATE_FILE"}, caCertFile, true);
 
-            streamProvider = new TokenStreamProvider(saToken, lCaCertFile);
+            // the token is read again for every request, as the service account token is rotated
+            baseStreamProvider = lSaTokenFile != null ? new TokenStreamProvider(new File(lSaTokenFile), lCaCertFile) : new TokenStreamProvider((String) null, lCaCertFile);
+            streamProviderKey = String.format("token:%s:%s", lSaTokenFile, lCaCertFile);
         }
         String ver = getSystemEnv(getSystemEnvName("API_VERSION"), apiVersion, true);
         String url = String.format("%s://%s:%s/api/%s", mProtocol, mHost, mPort, ver);
+        _maxConnections = getSystemEnvInt(getSystemEnvName("MAX_CONNECTIONS"), maxConnections);
+        // one connection limit per master and credentials, shared by every KubePing in the JVM
+        _boundedProvider = BoundedStreamProvider.getStreamProvider(url + "#" + streamProviderKey, baseStreamProvider, _maxConnections);
+        StreamProvider streamProvider = _boundedProvider;
+        _http2 = Boolean.parseBoolean(getSystemEnv(getSystemEnvName("HTTP2"), String.valueOf(http2), true));
+        if (_http2) {
+            // multiplex over one connection per master, falling back to HTTP/1.1 if HTTP/2 isn't negotiated
+            streamProvider = _http2Provider = Http2StreamProvider.getStreamProvider(url + "#" + streamProviderKey, baseStreamProvider, streamProvider);
+        }
         _labels = getSystemEnv(getSystemEnvName("LABELS"), labels, true);
         _pingPortName = getSystemEnv(getSystemEnvName("PORT_NAME"), pingPortName, true);
         _serverPort = getSystemEnvInt(getSystemEnvName("SERVER_PORT"), serverPort);
-        _client = new Client(url, headers, getConnectTimeout(), getReadTimeout(), getOperationAttempts(), getOperationSleep(), streamProvider);
+        _pageSize = getSystemEnvInt(getSystemEnvName("PAGE_SIZE"), pageSize);
+        _cacheTtl = (long) getSystemEnvInt(getSystemEnvName("CACHE_TTL"), (int) cacheTtl);
+        _watch = Boolean.parseBoolean(getSystemEnv(getSystemEnvName("WATCH"), String.valueOf(watch), true));
+        _watchTimeout = getSystemEnvInt(getSystemEnvName("WATCH_TIMEOUT"), watchTimeout);
+        _client = new Client(url, headers, getConnectTimeout(), getReadTimeout(), getRetryPolicy(), streamProvider, _pageSize, getMetrics());
     }
 
     @Override
@@ -186,16 +240,68 @@ public class KubePing extends OpenshiftPing {
         _labels = null;
         _serverPort = 0;
         _pingPortName = null;
+        _pageSize = 0;
+        _maxConnections = 0;
+        _http2 = false;
+        _cacheTtl = 0;
+        _watch = false;
+        _watchTimeout = 0;
         _client = null;
+        if (_http2Provider != null) {
+            _http2Provider.release();
+            _http2Provider = null;
+        }
+        if (_boundedProvider != null) {
+            _boundedProvider.release();
+            _boundedProvider = null;
+        }
         super.destroy();
     }
 
     @Override
-    protected synchronized List<InetSocketAddress> doReadAll(String clusterName) {
+    public void start() throws Exception {
+        super.start();
+        if (isClusteringEnabled() && _watch) {
+            _watcher = new PodWatcher(getClient(), _namespace, _labels, _watchTimeout, getOperationSleep());
+            _watcher.start();
+            if (log.isInfoEnabled()) {
+                log.info(String.format("watching pods in namespace [%s], labels [%s]", _namespace, _labels));
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (_watcher != null) {
+            _watcher.stop();
+            _watcher = null;
+        }
+        super.stop();
+    }
+
+    @Override
+    protected List<InetSocketAddress> doReadAll(String clusterName) {
         Client client = getClient();
+        PodWatcher watcher = _watcher;
+        CircuitBreaker breaker = getCircuitBreaker();
         List<Pod> pods;
         try {
-            pods = client.getPods(_namespace, _labels);
+            if (watcher != null && watcher.isSynced()) {
+                // kept current by the watch; no need to go to the master
+                pods = watcher.getPods();
+            } else if (breaker.allowRequest()) {
+                try {
+                    // shared with every other channel in the JVM discovering the same namespace and labels
+                    pods = PodCache.getInstance().getPods(client, _namespace, _labels, _cacheTtl);
+                } catch (Exception e) {
+                    breaker.recordFailure();
+                    throw e;
+                }
+                breaker.recordSuccess();
+            } else {
+                // the master keeps failing; keep the last known hosts until the breaker lets a probe through
+                return null;
+            }
             _hasLoggedPermissionError = false;
         } catch (Exception e) {
             if (!_hasLoggedPermissionError) {
@@ -203,10 +309,13 @@ public class KubePing extends OpenshiftPing {
                 log.warn(String.format("Problem getting Pod json from Kubernetes %s for cluster [%s], namespace [%s], labels [%s]; encountered [%s: %s]",
                         client.info(), clusterName, _namespace, _labels, e.getClass().getName(), e.getMessage()));
             }
-            pods = Collections.<Pod>emptyList();
+            // keep the last known hosts
+            return null;
         }
         List<InetSocketAddress> retval = new ArrayList<>();
+        int accepted = 0;
         for (Pod pod : pods) {
+            boolean acceptedPod = false;
             List<Container> containers = pod.getContainers();
             for (Container container : containers) {
                 Context context = new Context(container, _pingPortName);
@@ -214,9 +323,14 @@ public class KubePing extends OpenshiftPing {
                     String podIP = pod.getPodIP();
                     int containerPort = container.getPort(_pingPortName).getContainerPort();
                     retval.add(new InetSocketAddress(podIP, containerPort));
+                    acceptedPod = true;
                 }
             }
+            if (acceptedPod) {
+                accepted++;
+            }
         }
+        getMetrics().recordPodsAccepted(accepted);
         return retval;
     }
 
@@ -24,13 +24,23 @@ import java.util.List;
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public final class Pod {
+    private final String name;
     private final String podIP;
     private final List<Container> containers = new ArrayList<Container>();
 
     public Pod(String podIP) {
+        this(null, podIP);
+    }
+
+    public Pod(String name, String podIP) {
+        this.name = name;
         this.podIP = podIP;
     }
 
+    public String getName() {
+        return name;
+    }
+
     public String getPodIP() {
         return podIP;
     }
@@ -44,6 +54,6 @@ public final class Pod {
     }
 
     public String toString() {
-        return String.format("%s[podIP=%s, containers=%s]", getClass().getSimpleName(), podIP, containers);
+        return String.format("%s[name=%s, podIP=%s, containers=%s]", getClass().getSimpleName(), name, podIP, containers);
     }
 }
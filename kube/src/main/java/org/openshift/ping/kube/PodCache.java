@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.kube;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A process-wide snapshot of the running pods per master, namespace and labels, shared by every
+ * {@link KubePing} in the JVM. A snapshot is reused until it is older than the caller's ttl, and
+ * concurrent callers needing a new one wait on a single request to the master instead of each
+ * making their own.
+ */
+public class PodCache {
+    private static final Logger log = Logger.getLogger(PodCache.class.getName());
+
+    private static final PodCache INSTANCE = new PodCache();
+
+    private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+    public static PodCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached pods, listing them with the client if there is no snapshot younger than ttl.
+     *
+     * @param client the client to list pods with, its master url is part of the key
+     * @param namespace the namespace
+     * @param labels the label selector
+     * @param ttl how long a snapshot can be reused, in millis; 0 only coalesces concurrent requests
+     * @return the pods
+     * @throws Exception if listing fails; failures are never cached
+     */
+    public List<Pod> getPods(final Client client, final String namespace, final String labels, long ttl) throws Exception {
+        String key = String.format("%s|%s|%s", client.getMasterUrl(), namespace, labels);
+        while (true) {
+            Snapshot snapshot = snapshots.get(key);
+            if (snapshot != null && snapshot.isFresh(ttl)) {
+                return snapshot.get();
+            }
+            Snapshot next = new Snapshot(client, namespace, labels);
+            boolean won = (snapshot == null) ? snapshots.putIfAbsent(key, next) == null : snapshots.replace(key, snapshot, next);
+            if (won) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine(String.format("Listing pods for [%s].", key));
+                }
+                next.task.run();
+                return next.get();
+            }
+            // someone else started a request first; go round again and wait on theirs
+        }
+    }
+
+    /**
+     * Drops all snapshots.
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    private static class Snapshot {
+        private final FutureTask<List<Pod>> task;
+        private volatile long listed = -1L;
+
+        private Snapshot(final Client client, final String namespace, final String labels) {
+            this.task = new FutureTask<List<Pod>>(new Callable<List<Pod>>() {
+                public List<Pod> call() throws Exception {
+                    List<Pod> pods = client.getPods(namespace, labels);
+                    listed = System.nanoTime();
+                    return pods;
+                }
+            });
+        }
+
+        private boolean isFresh(long ttl) {
+            if (!task.isDone()) {
+                // in flight
+                return true;
+            }
+            long time = listed;
+            return time != -1L && System.nanoTime() - time < TimeUnit.MILLISECONDS.toNanos(ttl);
+        }
+
+        private List<Pod> get() throws Exception {
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
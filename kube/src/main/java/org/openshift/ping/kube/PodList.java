@@ -0,0 +1,59 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a pod list operation, along with the resourceVersion it was read at.
+ */
+public final class PodList {
+    private final List<Pod> pods;
+    private final String resourceVersion;
+    private final String continueToken;
+
+    public PodList(List<Pod> pods, String resourceVersion) {
+        this(pods, resourceVersion, null);
+    }
+
+    public PodList(List<Pod> pods, String resourceVersion, String continueToken) {
+        this.pods = Collections.unmodifiableList(pods);
+        this.resourceVersion = resourceVersion;
+        this.continueToken = continueToken;
+    }
+
+    public List<Pod> getPods() {
+        return pods;
+    }
+
+    public String getResourceVersion() {
+        return resourceVersion;
+    }
+
+    /**
+     * @return the token to request the next page with, or null if this is the last (or only) page
+     */
+    public String getContinue() {
+        return continueToken;
+    }
+
+    public String toString() {
+        return String.format("%s[resourceVersion=%s, pods=%s]", getClass().getSimpleName(), resourceVersion, pods);
+    }
+}
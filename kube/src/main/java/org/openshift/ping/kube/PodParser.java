@@ -0,0 +1,231 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads pod lists and pod watch events off a {@link JsonReader}, keeping only the pod name, phase,
+ * IP and named container ports. Every other subtree (annotations, managedFields, volumes, env, ...)
+ * is skipped without being materialized.
+ */
+final class PodParser {
+
+    /**
+     * A watch event; pod is null for a pod that is not (or no longer) running.
+     */
+    static final class WatchEvent {
+        final String type;
+        final String name;
+        final String resourceVersion;
+        final Pod pod;
+
+        private WatchEvent(String type, String name, String resourceVersion, Pod pod) {
+            this.type = type;
+            this.name = name;
+            this.resourceVersion = resourceVersion;
+            this.pod = pod;
+        }
+    }
+
+    /**
+     * The fields we care about from a single pod item, whichever order they arrive in.
+     */
+    private static final class Item {
+        String name;
+        String resourceVersion;
+        String continueToken;
+        String phase;
+        String podIP;
+        List<Container> containers;
+
+        Pod toPod() {
+            if (!"Running".equals(phase)) {
+                return null;
+            }
+            // We don't want to filter on the Ready condition as that could result in MERGEs instead of JOINs.
+            if (podIP == null || containers == null) {
+                return null;
+            }
+            Pod pod = new Pod(name, podIP);
+            for (Container container : containers) {
+                pod.addContainer(container);
+            }
+            return pod;
+        }
+    }
+
+    static PodList readPodList(JsonReader reader) throws IOException {
+        List<Pod> pods = new ArrayList<Pod>();
+        Item metadata = new Item();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("metadata".equals(name)) {
+                readMetadata(reader, metadata);
+            } else if ("items".equals(name) && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Pod pod = readItem(reader).toPod();
+                    if (pod != null) {
+                        pods.add(pod);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // an empty continue token means there are no more pages
+        String continueToken = metadata.continueToken != null && metadata.continueToken.length() > 0 ? metadata.continueToken : null;
+        return new PodList(pods, metadata.resourceVersion, continueToken);
+    }
+
+    static WatchEvent readWatchEvent(JsonReader reader) throws IOException {
+        String type = null;
+        Item item = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("type".equals(name)) {
+                type = reader.nextString();
+            } else if ("object".equals(name) && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                item = readItem(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (item == null) {
+            item = new Item();
+        }
+        return new WatchEvent(type, item.name, item.resourceVersion, item.toPod());
+    }
+
+    private static Item readItem(JsonReader reader) throws IOException {
+        Item item = new Item();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("metadata".equals(name)) {
+                readMetadata(reader, item);
+            } else if ("spec".equals(name) && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("containers".equals(reader.nextName()) && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                        item.containers = readContainers(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("status".equals(name) && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String statusName = reader.nextName();
+                    if ("phase".equals(statusName)) {
+                        item.phase = reader.nextString(); // Running
+                    } else if ("podIP".equals(statusName)) {
+                        item.podIP = reader.nextString(); // 10.1.0.169
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return item;
+    }
+
+    private static void readMetadata(JsonReader reader, Item item) throws IOException {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("name".equals(name)) {
+                item.name = reader.nextString(); // eap-app-1-43wra
+            } else if ("resourceVersion".equals(name)) {
+                item.resourceVersion = reader.nextString();
+            } else if ("continue".equals(name)) {
+                item.continueToken = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static List<Container> readContainers(JsonReader reader) throws IOException {
+        List<Container> containers = new ArrayList<Container>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Container container = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("ports".equals(reader.nextName()) && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                    container = new Container();
+                    readPorts(reader, container);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            // containers without ports are of no use to us
+            if (container != null) {
+                containers.add(container);
+            }
+        }
+        reader.endArray();
+        return containers;
+    }
+
+    private static void readPorts(JsonReader reader, Container container) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String portName = null;
+            int containerPort = -1;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("name".equals(name)) {
+                    portName = reader.nextString(); // ping
+                } else if ("containerPort".equals(name)) {
+                    containerPort = reader.nextInt(); // 8888
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (portName != null && containerPort != -1) {
+                container.addPort(new Port(portName, containerPort));
+            }
+        }
+        reader.endArray();
+    }
+
+    private PodParser() {}
+}
@@ -0,0 +1,198 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps an in-memory table of the running pods current, by listing them once and then following
+ * ADDED/MODIFIED/DELETED events from a long-lived watch. Falls back to a full re-list whenever the
+ * watch cannot be resumed (e.g. 410 Gone after the resourceVersion has been compacted away).
+ */
+public class PodWatcher implements Runnable {
+    private static final Logger log = Logger.getLogger(PodWatcher.class.getName());
+
+    private final Client client;
+    private final String namespace;
+    private final String labels;
+    private final int timeoutSeconds;
+    private final long retrySleep;
+
+    private volatile Map<String, Pod> pods = Collections.emptyMap();
+    private volatile boolean synced = false;
+    private volatile boolean running = false;
+    private volatile InputStream watchStream;
+    private String resourceVersion;
+    private Thread thread;
+
+    public PodWatcher(Client client, String namespace, String labels, int timeoutSeconds, long retrySleep) {
+        this.client = client;
+        this.namespace = namespace;
+        this.labels = labels;
+        this.timeoutSeconds = timeoutSeconds;
+        this.retrySleep = retrySleep;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, String.format("%s-%s", getClass().getSimpleName(), namespace));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        synced = false;
+        if (thread != null) {
+            thread.interrupt();
+            closeWatchStream();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return true once the initial list has been read, and for as long as the table is being kept current
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public List<Pod> getPods() {
+        return new ArrayList<Pod>(pods.values());
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (resourceVersion == null) {
+                    relist();
+                }
+                watch();
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                synced = false;
+                resourceVersion = null;
+                if (log.isLoggable(Level.WARNING)) {
+                    log.log(Level.WARNING, String.format("Problem watching pods in namespace [%s], labels [%s]; re-listing in %sms. Encountered [%s: %s]",
+                            namespace, labels, retrySleep, e.getClass().getName(), e.getMessage()));
+                }
+                try {
+                    Thread.sleep(retrySleep);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void relist() throws Exception {
+        PodList podList = client.listPods(namespace, labels);
+        Map<String, Pod> table = new LinkedHashMap<String, Pod>();
+        for (Pod pod : podList.getPods()) {
+            table.put(getKey(pod), pod);
+        }
+        pods = Collections.unmodifiableMap(table);
+        resourceVersion = podList.getResourceVersion();
+        synced = true;
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(String.format("Listed %s pod(s) at resourceVersion [%s]", table.size(), resourceVersion));
+        }
+    }
+
+    private void watch() throws Exception {
+        watchStream = client.openWatchStream(namespace, labels, resourceVersion, timeoutSeconds);
+        try (JsonReader reader = new JsonReader(watchStream)) {
+            while (running && reader.peek() != JsonReader.Token.END_DOCUMENT) {
+                if (!handleEvent(PodParser.readWatchEvent(reader))) {
+                    break;
+                }
+            }
+        } finally {
+            watchStream = null;
+        }
+    }
+
+    /**
+     * @return false if the watch cannot be continued
+     */
+    private boolean handleEvent(PodParser.WatchEvent event) {
+        if ("ERROR".equals(event.type)) {
+            // most likely 410 Gone; either way the watch cannot be resumed, so start over with a fresh list
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(String.format("Watch error event after resourceVersion [%s]; re-listing", resourceVersion));
+            }
+            resourceVersion = null;
+            return false;
+        }
+        if (event.resourceVersion != null) {
+            resourceVersion = event.resourceVersion;
+        }
+        if ("ADDED".equals(event.type) || "MODIFIED".equals(event.type)) {
+            // a pod that is no longer running (or not yet running) is simply not part of the table
+            update(event.name, event.pod);
+        } else if ("DELETED".equals(event.type)) {
+            update(event.name, null);
+        }
+        // BOOKMARK events only carry the resourceVersion
+        return true;
+    }
+
+    private void update(String name, Pod pod) {
+        Map<String, Pod> table = new LinkedHashMap<String, Pod>(pods);
+        if (pod != null) {
+            table.put(name, pod);
+        } else if (table.remove(name) == null) {
+            return;
+        }
+        pods = Collections.unmodifiableMap(table);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(String.format("Pod [%s] %s; %s pod(s) known", name, pod != null ? "updated" : "removed", table.size()));
+        }
+    }
+
+    private void closeWatchStream() {
+        InputStream stream = watchStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (Exception e) {
+                // ignore; the watch is being abandoned anyway
+            }
+        }
+    }
+
+    private static String getKey(Pod pod) {
+        return pod.getName() != null ? pod.getName() : pod.getPodIP();
+    }
+
+    public String toString() {
+        return String.format("%s[namespace=%s, labels=%s, synced=%s, pods=%s]", getClass().getSimpleName(), namespace, labels, synced, pods.size());
+    }
+}
@@ -16,13 +16,19 @@
 
 package org.openshift.ping.kube.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openshift.ping.common.DiscoveryMetrics;
 import org.openshift.ping.kube.Client;
 import org.openshift.ping.kube.Container;
 import org.openshift.ping.kube.Pod;
+import org.openshift.ping.kube.PodList;
 import org.openshift.ping.kube.Port;
 
 /**
@@ -46,4 +52,75 @@ public class ClientTest {
         Assert.assertEquals(8080, port.getContainerPort());
     }
 
+    @Test
+    public void testPodsSkipsUnusedFields() throws Exception {
+        String json = "{\"kind\":\"PodList\",\"metadata\":{\"resourceVersion\":\"42\"},\"items\":[" +
+            "{\"metadata\":{\"name\":\"a\",\"annotations\":{\"x\":\"{\\\"y\\\": [1, 2]}\"},\"managedFields\":[{\"f\":[true,false,null,1.5e3]}]}," +
+            "\"spec\":{\"volumes\":[],\"containers\":[{\"env\":[{\"name\":\"ping\",\"value\":\"\\u0070\"}],\"ports\":[{\"name\":\"ping\",\"containerPort\":8888}]}]}," +
+            "\"status\":{\"conditions\":[],\"phase\":\"Running\",\"podIP\":\"10.1.0.1\"}}," +
+            "{\"metadata\":{\"name\":\"b\"},\"spec\":{\"containers\":[{\"ports\":[{\"name\":\"ping\",\"containerPort\":8888}]}]}," +
+            "\"status\":{\"phase\":\"Pending\"}}]}";
+        Client client = new TestClient(Collections.singletonMap("pods", json));
+        PodList podList = client.listPods(null, null);
+        Assert.assertEquals("42", podList.getResourceVersion());
+        List<Pod> pods = podList.getPods();
+        Assert.assertEquals(1, pods.size());
+        Pod pod = pods.get(0);
+        Assert.assertEquals("a", pod.getName());
+        Assert.assertEquals("10.1.0.1", pod.getPodIP());
+        Assert.assertEquals(1, pod.getContainers().size());
+        Assert.assertEquals(8888, pod.getContainers().get(0).getPort("ping").getContainerPort());
+    }
+
+    @Test
+    public void testPodsPaged() throws Exception {
+        final List<String> continueTokens = new ArrayList<>();
+        Client client = new TestClient() {
+            @Override
+            protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+                continueTokens.add(continueToken);
+                String json;
+                if (continueToken == null) {
+                    json = "{\"metadata\":{\"resourceVersion\":\"7\",\"continue\":\"page2\"},\"items\":[" + pod("a", "10.1.0.1") + "]}";
+                } else {
+                    json = "{\"metadata\":{\"resourceVersion\":\"7\",\"continue\":\"\"},\"items\":[" + pod("b", "10.1.0.2") + "]}";
+                }
+                return new ByteArrayInputStream(json.getBytes("UTF-8"));
+            }
+        };
+        PodList podList = client.listPods(null, null);
+        Assert.assertEquals(2, continueTokens.size());
+        Assert.assertNull(continueTokens.get(0));
+        Assert.assertEquals("page2", continueTokens.get(1));
+        Assert.assertEquals("7", podList.getResourceVersion());
+        Assert.assertEquals(2, podList.getPods().size());
+        Assert.assertEquals("10.1.0.2", podList.getPods().get(1).getPodIP());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        DiscoveryMetrics metrics = new DiscoveryMetrics();
+        Client client = new TestClient(Collections.singletonMap("pods", "{\"items\":[" + pod("a", "10.1.0.1") + "," + pod("b", "10.1.0.2") + "]}"), metrics);
+        client.listPods(null, null);
+        client.getPods(null, null);
+        Assert.assertEquals(2, metrics.getLookups());
+        Assert.assertEquals(0, metrics.getFailedLookups());
+        Assert.assertEquals(4, metrics.getPodsParsed());
+
+        Client failing = new TestClient(Collections.<String, String>emptyMap(), metrics);
+        try {
+            failing.listPods(null, null);
+            Assert.fail("Expected the lookup to fail");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(3, metrics.getLookups());
+        Assert.assertEquals(1, metrics.getFailedLookups());
+        Assert.assertEquals(4, metrics.getPodsParsed());
+    }
+
+    private static String pod(String name, String podIP) {
+        return "{\"metadata\":{\"name\":\"" + name + "\"},\"spec\":{\"containers\":[{\"ports\":[{\"name\":\"ping\",\"containerPort\":8888}]}]}," +
+            "\"status\":{\"phase\":\"Running\",\"podIP\":\"" + podIP + "\"}}";
+    }
+
 }
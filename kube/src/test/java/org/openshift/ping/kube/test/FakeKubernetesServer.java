@@ -0,0 +1,223 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Kubernetes master, serving pod lists for discovery tests.
+ * <p>
+ * Pods are either registered explicitly (the members under test) or synthetic filler, which
+ * {@link #churn(int)} replaces to simulate a rolling deployment. Every request can be delayed
+ * and a share of them failed, and the number of list calls is counted so tests can check
+ * how much load discovery puts on the master.
+ */
+@SuppressWarnings("restriction")
+public class FakeKubernetesServer {
+    private static final String PODS_PATH = "/api/v1/namespaces/";
+    private static final int PING_PORT = 7800;
+
+    private final List<String[]> pods = new ArrayList<>();
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final AtomicInteger failedRequests = new AtomicInteger();
+    private final Random random = new Random();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private int generation;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public synchronized FakeKubernetesServer addPod(String name, String podIP) {
+        return addPod(name, podIP, PING_PORT);
+    }
+
+    /**
+     * @param pingPort the port of the pod's "ping" container port, e.g. its ping server's port
+     */
+    public synchronized FakeKubernetesServer addPod(String name, String podIP, int pingPort) {
+        pods.add(new String[]{name, podIP, String.valueOf(pingPort)});
+        return this;
+    }
+
+    /**
+     * Adds synthetic pods on 127.1.0.0/16, where nothing listens, so pings to them fail fast.
+     */
+    public synchronized FakeKubernetesServer addSyntheticPods(int count) {
+        for (int i = 0; i < count; i++) {
+            pods.add(syntheticPod());
+        }
+        return this;
+    }
+
+    /**
+     * Replaces up to {@code count} synthetic pods with new ones, as a rolling update would.
+     */
+    public synchronized int churn(int count) {
+        int replaced = 0;
+        for (int i = 0; i < pods.size() && replaced < count; i++) {
+            if (pods.get(i)[0].startsWith("synthetic-")) {
+                pods.remove(i);
+                pods.add(syntheticPod());
+                replaced++;
+                i--;
+            }
+        }
+        return replaced;
+    }
+
+    public FakeKubernetesServer setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    public FakeKubernetesServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public int getListRequests() {
+        return listRequests.get();
+    }
+
+    public int getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public synchronized void start() throws IOException {
+        if (server == null) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
+            server.createContext("/", new Handler());
+            server.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            try {
+                server.stop(0);
+                executor.shutdownNow();
+            } finally {
+                server = null;
+                executor = null;
+            }
+        }
+    }
+
+    private String[] syntheticPod() {
+        int n = generation++;
+        String podIP = String.format("127.1.%s.%s", (n >> 8) & 0xff, (n & 0xff) + 1);
+        return new String[]{"synthetic-" + n, podIP, String.valueOf(PING_PORT)};
+    }
+
+    private synchronized String renderPage(int offset, int limit) {
+        int end = limit > 0 ? Math.min(pods.size(), offset + limit) : pods.size();
+        StringBuilder json = new StringBuilder("{\"kind\":\"PodList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"")
+            .append(generation).append('"');
+        if (end < pods.size()) {
+            json.append(",\"continue\":\"").append(end).append('"');
+        }
+        json.append("},\"items\":[");
+        for (int i = offset; i < end; i++) {
+            String[] pod = pods.get(i);
+            if (i > offset) {
+                json.append(',');
+            }
+            json.append("{\"metadata\":{\"name\":\"").append(pod[0]).append("\"},")
+                .append("\"spec\":{\"containers\":[{\"name\":\"app\",\"ports\":[{\"name\":\"ping\",\"containerPort\":")
+                .append(pod[2]).append(",\"protocol\":\"TCP\"}]}]},")
+                .append("\"status\":{\"phase\":\"Running\",\"podIP\":\"").append(pod[1]).append("\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String getParam(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith(name + "=")) {
+                    return param.substring(name.length() + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                URI uri = exchange.getRequestURI();
+                String path = uri.getPath();
+                if (!path.startsWith(PODS_PATH) || !path.endsWith("/pods")) {
+                    respond(exchange, 404, "{\"kind\":\"Status\",\"code\":404}");
+                    return;
+                }
+                listRequests.incrementAndGet();
+                long latency = latencyMillis;
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                if (errorRate > 0 && random.nextDouble() < errorRate) {
+                    failedRequests.incrementAndGet();
+                    respond(exchange, 500, "{\"kind\":\"Status\",\"code\":500}");
+                    return;
+                }
+                String limit = getParam(uri, "limit");
+                String offset = getParam(uri, "continue");
+                String body = renderPage(offset != null ? Integer.parseInt(offset) : 0, limit != null ? Integer.parseInt(limit) : 0);
+                respond(exchange, 200, body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.kube.test;
+
+import org.jgroups.JChannel;
+import org.jgroups.protocols.TCP;
+import org.jgroups.stack.Protocol;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openshift.ping.kube.KubePing;
+
+/**
+ * Clusters two channels through {@link KubePing} discovering over HTTP: every member posts its discovery request to
+ * the other's ping server, on the port the pod lists, and gets the responses back in the HTTP response.
+ */
+public class KubePingHttpDiscoveryTest extends KubePingTest {
+
+    @Override
+    protected Protocol createPing(int i) {
+        return createPing().setValue("httpDiscovery", true).setValue("serverPort", SERVER_PORT + i);
+    }
+
+    /**
+     * The protocol that captures the responses to ping requests sits below the discovery protocol only while it is
+     * initialized, and only once.
+     */
+    @Test
+    public void testResponseCapture() throws Exception {
+        TCP transport = new TCP();
+        KubePing ping = (KubePing) createPing(getNum());
+        JChannel channel = new JChannel(transport, ping);
+        try {
+            Protocol capture = ping.getDownProtocol();
+            Assert.assertNotSame(transport, capture);
+            Assert.assertSame(transport, capture.getDownProtocol());
+
+            ping.destroy();
+            Assert.assertSame(transport, ping.getDownProtocol());
+
+            ping.init();
+            Assert.assertNotSame(transport, ping.getDownProtocol());
+            Assert.assertSame(transport, ping.getDownProtocol().getDownProtocol());
+        } finally {
+            channel.close();
+        }
+    }
+}
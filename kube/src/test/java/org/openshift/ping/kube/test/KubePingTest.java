@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.kube.test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.jgroups.protocols.TCP;
+import org.jgroups.stack.Protocol;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.openshift.ping.kube.KubePing;
+import org.openshift.ping.kube.PodCache;
+
+/**
+ * Clusters two channels through {@link KubePing}, which sends its discovery requests through the transport to every
+ * pod the {@link FakeKubernetesServer} lists. Each member binds its own 127.0.0.x address on the same port, as
+ * discovery assumes port symmetry between pods. The pods' ping ports are those their ping servers would listen on,
+ * which only matters when discovering over HTTP.
+ */
+public class KubePingTest extends PingTestBase {
+    private static final int MEMBERS = 2;
+    private static final int BIND_PORT = 7800;
+    protected static final int SERVER_PORT = 8890;
+
+    private static FakeKubernetesServer master;
+
+    @BeforeClass
+    public static void startMaster() throws Exception {
+        master = new FakeKubernetesServer();
+        for (int i = 0; i < MEMBERS; i++) {
+            master.addPod("member-" + i, getMemberAddress(i).getHostAddress(), SERVER_PORT + i);
+        }
+        master.start();
+    }
+
+    @AfterClass
+    public static void stopMaster() throws Exception {
+        master.stop();
+        PodCache.getInstance().clear();
+    }
+
+    private static InetAddress getMemberAddress(int i) throws UnknownHostException {
+        return InetAddress.getByName("127.0.0." + (i + 2));
+    }
+
+    @Override
+    protected int getNum() {
+        return MEMBERS;
+    }
+
+    @Override
+    protected Protocol createTransport(int i) {
+        try {
+            return new TCP().setValue("bind_addr", getMemberAddress(i)).setValue("bind_port", BIND_PORT).setValue("port_range", 0);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected Protocol createPing() {
+        KubePing ping = new KubePing();
+        ping.setMasterProtocol("http");
+        ping.setMasterHost(InetAddress.getLoopbackAddress().getHostAddress());
+        ping.setMasterPort(master.getPort());
+        ping.setNamespace("default");
+        return ping;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube.test;
+
+import static org.openshift.ping.common.Utils.getSystemEnv;
+import static org.openshift.ping.common.Utils.getSystemProperty;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jgroups.JChannel;
+import org.jgroups.View;
+import org.jgroups.protocols.TCP;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Util;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.openshift.ping.common.compatibility.CompatibilityUtils;
+import org.openshift.ping.kube.KubePing;
+import org.openshift.ping.kube.PodCache;
+
+/**
+ * Discovery scale harness: starts LARGE_CLUSTER_MEMBERS channels over loopback TCP, all using
+ * {@link KubePing} against a {@link FakeKubernetesServer}, and reports how long it takes every
+ * member to see the full view and how many pod list requests the master had to serve.
+ * <p>
+ * Each member binds its own 127.0.x.y address on the same port, as discovery assumes port
+ * symmetry between pods. Skipped unless LARGE_CLUSTER_MEMBERS is set (env or system property);
+ * optional LARGE_CLUSTER_SYNTHETIC_PODS, LARGE_CLUSTER_LATENCY (ms), LARGE_CLUSTER_ERROR_RATE,
+ * LARGE_CLUSTER_CHURN (synthetic pods replaced per second), LARGE_CLUSTER_CACHE_TTL (ms) and
+ * LARGE_CLUSTER_TIMEOUT (seconds) shape the run.
+ * <p>
+ * All members share the JVM-wide {@link PodCache}. The cacheTtl of 0 default keeps them from reusing
+ * each other's pod lists, but members asking at the same time still wait on one request to the master,
+ * which pods in separate JVMs can't. The pod list requests reported are therefore a lower bound of the
+ * load the same number of real pods would put on the master.
+ */
+public class LargeClusterTest {
+    private static final String CLUSTER_NAME = "large";
+    private static final String NAMESPACE = "large";
+    private static final int BIND_PORT = 7800;
+    private static final Logger log = Logger.getLogger(LargeClusterTest.class.getName());
+
+    private static String getValue(String name, String defaultValue) {
+        String value = getSystemEnv(name);
+        return value != null ? value : getSystemProperty(name, defaultValue);
+    }
+
+    private static InetAddress getMemberAddress(int i) throws Exception {
+        int n = i + 2;
+        return InetAddress.getByName(String.format("127.0.%s.%s", n >> 8, n & 0xff));
+    }
+
+    @Test
+    public void testTimeToFullView() throws Exception {
+        final int members = Integer.parseInt(getValue("LARGE_CLUSTER_MEMBERS", "0"));
+        Assume.assumeTrue("LARGE_CLUSTER_MEMBERS is not set", members > 0);
+        int syntheticPods = Integer.parseInt(getValue("LARGE_CLUSTER_SYNTHETIC_PODS", "0"));
+        long latency = Long.parseLong(getValue("LARGE_CLUSTER_LATENCY", "0"));
+        double errorRate = Double.parseDouble(getValue("LARGE_CLUSTER_ERROR_RATE", "0"));
+        final int churn = Integer.parseInt(getValue("LARGE_CLUSTER_CHURN", "0"));
+        long cacheTtl = Long.parseLong(getValue("LARGE_CLUSTER_CACHE_TTL", "0"));
+        long timeout = TimeUnit.SECONDS.toMillis(Long.parseLong(getValue("LARGE_CLUSTER_TIMEOUT", "300")));
+
+        final FakeKubernetesServer master = new FakeKubernetesServer().setLatency(latency).setErrorRate(errorRate);
+        for (int i = 0; i < members; i++) {
+            master.addPod("member-" + i, getMemberAddress(i).getHostAddress());
+        }
+        master.addSyntheticPods(syntheticPods);
+        master.start();
+
+        final JChannel[] channels = new JChannel[members];
+        ExecutorService connector = Executors.newFixedThreadPool(Math.min(members, 32));
+        ScheduledExecutorService churner = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (int i = 0; i < members; i++) {
+                channels[i] = createChannel(i, master.getPort(), cacheTtl);
+            }
+            if (churn > 0) {
+                churner.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        master.churn(churn);
+                    }
+                }, 1, 1, TimeUnit.SECONDS);
+            }
+
+            long start = System.nanoTime();
+            List<Future<Void>> connects = new ArrayList<>();
+            for (final JChannel channel : channels) {
+                connects.add(connector.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        channel.connect(CLUSTER_NAME);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> connect : connects) {
+                connect.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            long connected = System.nanoTime();
+
+            boolean converged = false;
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!converged && System.currentTimeMillis() < deadline) {
+                converged = true;
+                for (JChannel channel : channels) {
+                    View view = channel.getView();
+                    if (view == null || view.size() != members) {
+                        converged = false;
+                        Thread.sleep(100);
+                        break;
+                    }
+                }
+            }
+            long fullView = System.nanoTime();
+
+            log.info(String.format(
+                "members=%s syntheticPods=%s latency=%sms errorRate=%s churn=%s/s cacheTtl=%sms: connected in %sms, full view %s in %sms, %s pod list requests (%s failed)",
+                members, syntheticPods, latency, errorRate, churn, cacheTtl,
+                TimeUnit.NANOSECONDS.toMillis(connected - start), converged ? "reached" : "NOT reached",
+                TimeUnit.NANOSECONDS.toMillis(fullView - start), master.getListRequests(), master.getFailedRequests()));
+            Assert.assertTrue("Members did not converge on a view of " + members + " within " + timeout + "ms", converged);
+            Assert.assertTrue("No pod list request reached the master", master.getListRequests() > 0);
+        } finally {
+            churner.shutdownNow();
+            connector.shutdownNow();
+            for (JChannel channel : channels) {
+                if (channel != null) {
+                    channel.disconnect();
+                }
+            }
+            Util.close(channels);
+            master.stop();
+            PodCache.getInstance().clear();
+        }
+    }
+
+    private JChannel createChannel(int i, int masterPort, long cacheTtl) throws Exception {
+        KubePing ping = new KubePing();
+        ping.setMasterProtocol("http");
+        ping.setMasterHost(InetAddress.getLoopbackAddress().getHostAddress());
+        ping.setMasterPort(masterPort);
+        ping.setNamespace(NAMESPACE);
+        // every member is its own pod in a real cluster, so by default don't let them reuse each other's lookups
+        ping.setValue("cacheTtl", cacheTtl);
+
+        Protocol unicastProtocol;
+        if (CompatibilityUtils.isJGroups4()) {
+            unicastProtocol = (Protocol) Class.forName("org.jgroups.protocols.UNICAST3").newInstance();
+        } else {
+            unicastProtocol = (Protocol) Class.forName("org.jgroups.protocols.UNICAST2").newInstance();
+        }
+
+        JChannel channel = new JChannel(
+            new TCP().setValue("bind_addr", getMemberAddress(i)).setValue("bind_port", BIND_PORT).setValue("port_range", 0),
+            ping,
+            new NAKACK2(),
+            unicastProtocol,
+            new STABLE(),
+            new GMS()
+        );
+        channel.setName("member-" + i);
+        return channel;
+    }
+}
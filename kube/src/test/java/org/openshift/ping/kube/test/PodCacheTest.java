@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package org.openshift.ping.kube.test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openshift.ping.kube.Pod;
+import org.openshift.ping.kube.PodCache;
+
+public class PodCacheTest {
+
+    @After
+    public void clear() {
+        PodCache.getInstance().clear();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneRequest() throws Exception {
+        final int callers = 8;
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final TestClient client = new TestClient() {
+            @Override
+            protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+                requests.incrementAndGet();
+                // hold the request open until every caller has asked
+                waiting.await(10, TimeUnit.SECONDS);
+                return super.getStream(op, namespace, labels, continueToken);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<List<Pod>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(new Callable<List<Pod>>() {
+                    public List<Pod> call() throws Exception {
+                        return PodCache.getInstance().getPods(client, "ns", "app=test", 0);
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            waiting.countDown();
+            for (Future<List<Pod>> result : results) {
+                Assert.assertEquals(2, result.get(10, TimeUnit.SECONDS).size());
+            }
+            Assert.assertEquals(1, requests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        TestClient client = new TestClient() {
+            @Override
+            protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+                requests.incrementAndGet();
+                return super.getStream(op, namespace, labels, continueToken);
+            }
+        };
+        PodCache cache = PodCache.getInstance();
+        cache.getPods(client, "ns", "app=test", 60000);
+        cache.getPods(client, "ns", "app=test", 60000);
+        Assert.assertEquals(1, requests.get());
+        // a different selector is a different snapshot
+        cache.getPods(client, "ns", "app=other", 60000);
+        Assert.assertEquals(2, requests.get());
+        // a caller wanting fresher data lists again
+        cache.getPods(client, "ns", "app=test", 0);
+        Assert.assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        TestClient client = new TestClient() {
+            @Override
+            protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+                if (requests.incrementAndGet() == 1) {
+                    throw new IllegalStateException("master unavailable");
+                }
+                return super.getStream(op, namespace, labels, continueToken);
+            }
+        };
+        try {
+            PodCache.getInstance().getPods(client, "ns", "app=test", 60000);
+            Assert.fail("Expected the failure to be rethrown");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(2, PodCache.getInstance().getPods(client, "ns", "app=test", 60000).size());
+        Assert.assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+
+package org.openshift.ping.kube.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openshift.ping.kube.Pod;
+import org.openshift.ping.kube.PodWatcher;
+
+public class PodWatcherTest {
+
+    private static final String EVENTS =
+        "{\"type\":\"ADDED\",\"object\":{\"metadata\":{\"name\":\"eap-app-1-new\",\"resourceVersion\":\"11\"}," +
+            "\"spec\":{\"containers\":[{\"ports\":[{\"name\":\"ping\",\"containerPort\":8888}]}]}," +
+            "\"status\":{\"phase\":\"Running\",\"podIP\":\"127.0.0.2\"}}}\n" +
+        "{\"type\":\"DELETED\",\"object\":{\"metadata\":{\"name\":\"eap-app-1-43wra\",\"resourceVersion\":\"12\"}}}\n" +
+        "{\"type\":\"MODIFIED\",\"object\":{\"metadata\":{\"name\":\"eap-app-1-dctpw\",\"resourceVersion\":\"13\"}," +
+            "\"spec\":{\"containers\":[{\"ports\":[{\"name\":\"ping\",\"containerPort\":8888}]}]}," +
+            "\"status\":{\"phase\":\"Succeeded\",\"podIP\":\"127.0.0.1\"}}}\n";
+
+    @Test
+    public void testWatch() throws Exception {
+        final CountDownLatch consumed = new CountDownLatch(2);
+        TestClient client = new TestClient() {
+            @Override
+            protected InputStream openWatchStream(String namespace, String labels, String resourceVersion, int timeoutSeconds) throws Exception {
+                consumed.countDown();
+                if (consumed.getCount() > 0) {
+                    return new ByteArrayInputStream(EVENTS.getBytes("UTF-8"));
+                }
+                // second watch; park until the watcher is stopped
+                Thread.sleep(Long.MAX_VALUE);
+                return null;
+            }
+        };
+        PodWatcher watcher = new PodWatcher(client, null, null, 1, 10);
+        watcher.start();
+        try {
+            Assert.assertTrue(consumed.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(watcher.isSynced());
+            List<Pod> pods = watcher.getPods();
+            Assert.assertEquals(1, pods.size());
+            Assert.assertEquals("eap-app-1-new", pods.get(0).getName());
+            Assert.assertEquals("127.0.0.2", pods.get(0).getPodIP());
+        } finally {
+            watcher.stop();
+        }
+        Assert.assertFalse(watcher.isSynced());
+    }
+
+}
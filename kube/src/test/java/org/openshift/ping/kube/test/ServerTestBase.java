@@ -18,13 +18,15 @@ package org.openshift.ping.kube.test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.Proxy;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.jgroups.Address;
 import org.jgroups.Event;
@@ -34,16 +36,17 @@ import org.jgroups.View;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.protocols.PingData;
 import org.jgroups.protocols.PingHeader;
+import org.jgroups.stack.IpAddress;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.Buffer;
 import org.jgroups.util.Streamable;
 import org.jgroups.util.UUID;
 import org.jgroups.util.Util;
 import org.junit.Assert;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.openshift.ping.common.compatibility.CompatibilityException;
-import org.openshift.ping.common.compatibility.CompatibilityUtils;
+import org.openshift.ping.common.server.NioServer;
+import org.openshift.ping.common.server.PingResponses;
 import org.openshift.ping.common.server.Server;
 import org.openshift.ping.kube.Client;
 import org.openshift.ping.kube.KubePing;
@@ -66,6 +69,7 @@ public abstract class ServerTestBase extends TestBase {
         ping.setMasterHost("localhost");
         ping.setMasterPort(8080);
         ping.setNamespace("default");
+        ping.setValue("serverEnabled", true);
         applyConfig(ping);
         pinger = (TestKubePing) ping;
         return ping;
@@ -73,18 +77,23 @@ public abstract class ServerTestBase extends TestBase {
 
     protected abstract void applyConfig(KubePing ping);
 
-    @Test @Ignore
+    /**
+     * Posts a discovery request from a made-up member to the ping server, the way another member's discovery would,
+     * asking for the response in the HTTP response. The servers read it from a stream, except {@link NioServer},
+     * which reads a request this small straight from its buffer.
+     */
+    @Test
     public void testResponse() throws Exception {
-        Address local_addr = pinger.getLocalAddress();
-        PhysicalAddress physical_addr = (PhysicalAddress) pinger
-                .down(new Event(Event.GET_PHYSICAL_ADDRESS, local_addr));
-        PingData data = createPingData(local_addr, physical_addr);
-        final PingHeader hdr = getPingHeader(data);
+        Address sender = UUID.randomUUID();
+        PhysicalAddress senderPhysicalAddr = new IpAddress(InetAddress.getLoopbackAddress(), 7899);
+        PingData data = createPingData(sender, senderPhysicalAddr);
         Message msg = new Message(null).setFlag(Message.Flag.DONT_BUNDLE)
-                .putHeader(pinger.getId(), hdr).setBuffer(streamableToBuffer(data));
+                .putHeader(pinger.getId(), createPingHeader(data)).setBuffer(streamableToBuffer(data));
+        msg.setSrc(sender);
         URL url = new URL("http://localhost:8888");
         HttpURLConnection conn = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
         conn.addRequestProperty(Server.CLUSTER_NAME, TestBase.CLUSTER_NAME);
+        conn.addRequestProperty("Accept", PingResponses.CONTENT_TYPE);
         conn.setDoOutput(true);
         conn.setRequestMethod("POST");
 
@@ -93,6 +102,22 @@ public abstract class ServerTestBase extends TestBase {
         out.flush();
 
         Assert.assertEquals(200, conn.getResponseCode());
+        Assert.assertEquals(PingResponses.CONTENT_TYPE, conn.getContentType());
+        List<Message> responses;
+        try (InputStream in = conn.getInputStream()) {
+            responses = PingResponses.decode(in);
+        }
+        // answered
+        Assert.assertEquals(1, responses.size());
+        Message response = responses.get(0);
+        Assert.assertEquals(sender, response.getDest());
+        Assert.assertEquals(pinger.getLocalAddress(), response.getSrc());
+        Assert.assertNotNull(response.getHeader(pinger.getId()));
+        // registered: the transport now knows where the sender is
+        Assert.assertEquals(senderPhysicalAddr, pinger.down(new Event(Event.GET_PHYSICAL_ADDRESS, sender)));
+        // the server's pool kept up
+        Assert.assertEquals(0, pinger.getServerQueueDepth());
+        Assert.assertEquals(0, pinger.getServerRejectedCount());
     }
 
     private static Buffer streamableToBuffer(Streamable obj) {
@@ -106,39 +131,39 @@ public abstract class ServerTestBase extends TestBase {
         }
     }
 
-    private PingHeader getPingHeader(PingData data) {
+    /*
+     * Handled via reflection because of JGroups 3/4 incompatibility: from 3.5 on the request header only carries
+     * the cluster name, before that it carried the ping data too.
+     */
+    private PingHeader createPingHeader(PingData data) {
         try {
-            if(CompatibilityUtils.isJGroups4()) {
-                Constructor<PingHeader> constructor = PingHeader.class.getConstructor(null);
-                PingHeader header = constructor.newInstance(null);
-                Method clusterName = header.getClass().getMethod("clusterName", String.class);
-                clusterName.invoke(header, TestBase.CLUSTER_NAME);
+            try {
+                PingHeader header = PingHeader.class.getConstructor(byte.class).newInstance(PingHeader.GET_MBRS_REQ);
+                PingHeader.class.getMethod("clusterName", String.class).invoke(header, TestBase.CLUSTER_NAME);
                 return header;
-            } else {
+            } catch (NoSuchMethodException e) {
                 Constructor<PingHeader> constructor = PingHeader.class.getConstructor(byte.class, PingData.class, String.class);
-                return constructor.newInstance(PingHeader.GET_MBRS_RSP, data, TestBase.CLUSTER_NAME);
+                return constructor.newInstance(PingHeader.GET_MBRS_REQ, data, TestBase.CLUSTER_NAME);
             }
         } catch (Exception e) {
-            throw new CompatibilityException("Could not find or invoke proper 'PingHeader' constructor");
+            throw new CompatibilityException("Could not find or invoke proper 'PingHeader' constructor", e);
         }
     }
 
     /*
      * Handled via reflection because of JGroups 3/4 incompatibility.
      */
-    private PingData createPingData(Address local_addr, PhysicalAddress physical_addr) {
+    private PingData createPingData(Address sender, PhysicalAddress physical_addr) {
         try {
-            if(CompatibilityUtils.isJGroups4()) {
-                Constructor<PingData> constructor = PingData.class.getConstructor(Address.class, boolean.class);
-                return constructor.newInstance(local_addr, false);
-            } else {
-                String localAddressAsString = (String) UUID.class.getMethod("get", Address.class).invoke(null, local_addr);
-                Constructor<PingData> constructor = PingData.class.getConstructor(Address.class, View.class, boolean.class, String.class, Collection.class);;
-                return constructor.newInstance(local_addr, null, false, localAddressAsString,
-                      physical_addr != null ? Arrays.asList(physical_addr) : null);
+            try {
+                Constructor<PingData> constructor = PingData.class.getConstructor(Address.class, boolean.class, String.class, PhysicalAddress.class);
+                return constructor.newInstance(sender, false, "sender", physical_addr);
+            } catch (NoSuchMethodException e) {
+                Constructor<PingData> constructor = PingData.class.getConstructor(Address.class, View.class, boolean.class, String.class, Collection.class);
+                return constructor.newInstance(sender, null, false, "sender", Arrays.asList(physical_addr));
             }
         } catch (Exception e) {
-            throw new CompatibilityException("Could not find or invoke proper 'PingData' constructor");
+            throw new CompatibilityException("Could not find or invoke proper 'PingData' constructor", e);
         }
     }
 
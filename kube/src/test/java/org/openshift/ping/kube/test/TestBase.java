@@ -63,7 +63,7 @@ public abstract class TestBase {
         receivers = new MyReceiver[getNum()];
 
         for (int i = 0; i < getNum(); i++) {
-            Protocol ping = createPing();
+            Protocol ping = createPing(i);
 
             Protocol unicastProtocol = null;
             if(CompatibilityUtils.isJGroups4()) {
@@ -74,7 +74,7 @@ public abstract class TestBase {
             }
 
             channels[i] = new JChannel(
-                new TCP().setValue("bind_addr", InetAddress.getLoopbackAddress()),
+                createTransport(i),
                 ping,
                 new NAKACK2(),
                 unicastProtocol,
@@ -95,8 +95,16 @@ public abstract class TestBase {
         Util.close(channels);
     }
 
+    protected Protocol createTransport(int i) {
+        return new TCP().setValue("bind_addr", InetAddress.getLoopbackAddress());
+    }
+
     protected abstract Protocol createPing();
 
+    protected Protocol createPing(int i) {
+        return createPing();
+    }
+
     protected void clearReceivers() {
         for (MyReceiver r : receivers) r.getList().clear();
     }
@@ -18,11 +18,14 @@ package org.openshift.ping.kube.test;
 
 import static org.openshift.ping.common.Utils.readFileToString;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.jboss.dmr.ModelNode;
+import org.openshift.ping.common.DiscoveryMetrics;
+import org.openshift.ping.common.RetryPolicy;
 import org.openshift.ping.kube.Client;
 
 /**
@@ -40,16 +43,27 @@ public class TestClient extends Client {
         }
     }
 
+    private final Map<String, String> ops;
+
     public TestClient() {
-        super(null, null, 0, 0, 0, 0, null);
+        this(OPS);
+    }
+
+    public TestClient(Map<String, String> ops) {
+        this(ops, null);
+    }
+
+    public TestClient(Map<String, String> ops, DiscoveryMetrics metrics) {
+        super(null, null, 0, 0, RetryPolicy.fixed(0, 0), null, 0, metrics);
+        this.ops = ops;
     }
 
     @Override
-    protected ModelNode getNode(String op, String namespace, String labels) throws Exception {
-        String value = OPS.get(op);
+    protected InputStream getStream(String op, String namespace, String labels, String continueToken) throws Exception {
+        String value = ops.get(op);
         if (value == null) {
             throw new IllegalStateException("No such op: " + op);
         }
-        return ModelNode.fromJSONString(value);
+        return new ByteArrayInputStream(value.getBytes("UTF-8"));
     }
 }